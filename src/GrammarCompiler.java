@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.io.File;
+import java.io.IOException;
+
+import rrhvella.composition.Grammar;
+import rrhvella.composition.GrammarFile;
+import rrhvella.composition.MelodyGenerator;
+import rrhvella.composition.Scale;
+
+/**
+ * Compiles a grammar into a binary grammar file, which can then be loaded with
+ * {@link GrammarFile#read(File)}.
+ * 
+ * The grammar is either read from a text file, in the format described by
+ * {@link GrammarFile}, or is one of the grammars built into this project.
+ */
+public class GrammarCompiler {
+	/**
+	 * The main method of the compiler.
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 */
+	public static void main(String[] args) {
+		// If not enough arguments have been specified, describe them.
+		if (args.length < 2) {
+			System.out.println("Please enter the following arguments for "
+					+ "this program (seperated by spaces): ");
+			System.out.println("Argument 1: The grammar, either the name of "
+					+ "a text file, chord:MAJOR, chord:MINOR or "
+					+ "melody:<number of bars>");
+			System.out.println("Argument 2: The name of the grammar file "
+					+ "which will be written");
+			return;
+		}
+
+		try {
+			Grammar grammar;
+
+			// Find the grammar which will be compiled.
+			if (args[0].startsWith("chord:")) {
+				grammar = Scale.valueOf(args[0].substring(6)).getChordSystem()
+						.getGrammar();
+			} else if (args[0].startsWith("melody:")) {
+				grammar = MelodyGenerator.getGrammar(Integer.parseInt(args[0]
+						.substring(7)));
+			} else {
+				grammar = GrammarFile.parse(new File(args[0]));
+			}
+
+			// Write the grammar, and then read it back, so as to check the
+			// file and show how long it takes to load.
+			File output = new File(args[1]);
+			GrammarFile.write(grammar, output);
+
+			long start = System.nanoTime();
+			GrammarFile.read(output);
+			long end = System.nanoTime();
+
+			System.out.println(String.format(
+					"Wrote %s (%d bytes), which loads in %.1f microseconds.",
+					output, output.length(), (end - start) / 1000.0));
+		} catch (IOException exception) {
+			System.out.println("The grammar could not be compiled: "
+					+ exception.getMessage());
+		} catch (IllegalArgumentException exception) {
+			System.out.println("Invalid grammar: " + exception.getMessage());
+		}
+	}
+}
@@ -33,6 +33,7 @@ import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 
+import rrhvella.composition.MelodyLibrary;
 import rrhvella.composition.Note;
 import rrhvella.composition.Scale;
 import rrhvella.composition.StructuredPolyphonicLSystemNotator;
@@ -71,6 +72,10 @@ public class Main {
 				System.out
 						.println("Argument 4: The name of the piece, ex. \"La la la\" "
 								+ "(Note: this is used as the name of the midi file.)");
+				System.out
+						.println("Argument 5 (optional): A melody library written by "
+								+ "MelodyLibraryGenerator, from which the melodies "
+								+ "will be sampled");
 				System.out.println("");
 				System.out
 						.println("The following would be valid calls to this program:");
@@ -81,6 +86,14 @@ public class Main {
 				return;
 			}
 
+			// If a melody library has been specified, sample the melodies
+			// from it.
+			if (args.length > 4) {
+				StructuredPolyphonicLSystemNotator
+						.setMelodyPatternSource(MelodyLibrary
+								.open(new File(args[4])));
+			}
+
 			// Generate the MIDI sequence.
 			Sequence midiSequence = StructuredPolyphonicLSystemNotator
 					.getSequence(
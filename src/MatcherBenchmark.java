@@ -0,0 +1,137 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import rrhvella.composition.ContextSensitiveNonDeterministicLSystem;
+import rrhvella.composition.MelodyGenerator;
+import rrhvella.composition.Scale;
+
+/**
+ * Compares the time taken to rewrite long derivations, when the contexts of
+ * the productions are matched with the predecessor trie, and when they are
+ * matched with the tree of method handles compiled from it.
+ * 
+ * Each grammar is first derived up to a generation with at least
+ * {@link #SOURCE_LENGTH} symbols. That generation is then rewritten repeatedly
+ * by the interpreted and by the compiled system, and the average time per
+ * rewrite is printed for both. The interpreted system matches the trie a
+ * block of positions at a time, while the compiled tree matches one position
+ * at a time.
+ */
+public class MatcherBenchmark {
+	/**
+	 * The minimum number of symbols in the string which is rewritten.
+	 */
+	private static final int SOURCE_LENGTH = 1 << 20;
+	/**
+	 * The number of rewrites performed before the timing starts, so that the
+	 * JIT compiler can optimise the code.
+	 */
+	private static final int WARM_UP_ITERATIONS = 10;
+	/**
+	 * The number of rewrites which are timed.
+	 */
+	private static final int TIMED_ITERATIONS = 20;
+
+	/**
+	 * The main method of the benchmark.
+	 * 
+	 * @param args
+	 *            the command line arguments (not used).
+	 */
+	public static void main(String[] args) {
+		benchmark("Chord grammar (major)", Scale.MAJOR.getChordSystem(),
+				Scale.MAJOR.getChordSystem());
+		benchmark("Melody grammar", new MelodyGenerator(SOURCE_LENGTH / 8),
+				new MelodyGenerator(SOURCE_LENGTH / 8));
+	}
+
+	/**
+	 * Benchmarks a grammar, and prints the results.
+	 * 
+	 * @param name
+	 *            the name of the grammar.
+	 * @param interpreted
+	 *            a system for the grammar, which will match contexts with its
+	 *            trie.
+	 * @param compiled
+	 *            a second system for the same grammar, which will match
+	 *            contexts with a compiled tree of method handles.
+	 */
+	private static void benchmark(String name,
+			ContextSensitiveNonDeterministicLSystem interpreted,
+			ContextSensitiveNonDeterministicLSystem compiled) {
+		// Derive the string which will be rewritten.
+		while (interpreted.getCurrentSymbols().length() < SOURCE_LENGTH) {
+			interpreted.advance();
+		}
+
+		String source = interpreted.getCurrentString();
+
+		if (!compiled.compileProductions()) {
+			System.out.println(name
+					+ ": the productions could not be compiled.");
+			return;
+		}
+
+		double interpretedTime = time(interpreted, source);
+		double compiledTime = time(compiled, source);
+
+		System.out.println(String.format(
+				"%s (%d symbols): interpreted %.2f ms, compiled %.2f ms", name,
+				source.length(), interpretedTime, compiledTime));
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, taken by the given system to
+	 * rewrite the given string.
+	 * 
+	 * @param system
+	 *            the system which rewrites the string.
+	 * @param source
+	 *            the string which will be rewritten.
+	 * @return the average time taken to rewrite the string.
+	 */
+	private static double time(ContextSensitiveNonDeterministicLSystem system,
+			String source) {
+		for (int iteration = 0; iteration < WARM_UP_ITERATIONS; iteration++) {
+			system.process(source);
+		}
+
+		long start = System.nanoTime();
+
+		for (int iteration = 0; iteration < TIMED_ITERATIONS; iteration++) {
+			system.process(source);
+		}
+
+		return (double) (System.nanoTime() - start)
+				/ TimeUnit.MILLISECONDS.toNanos(1) / TIMED_ITERATIONS;
+	}
+}
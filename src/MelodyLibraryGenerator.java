@@ -0,0 +1,92 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import rrhvella.composition.MelodyLibrary;
+import rrhvella.composition.StructuredPolyphonicLSystemNotator;
+
+/**
+ * Derives a library of melodic patterns, for every phrase length and number of
+ * iterations used by the notator, and writes it to a file. The library can
+ * then be passed to {@link Main}, so that the melodies of a piece are sampled
+ * from it instead of being derived.
+ */
+public class MelodyLibraryGenerator {
+	/**
+	 * The main method of the generator.
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 */
+	public static void main(String[] args) {
+		// If not enough arguments have been specified, describe them.
+		if (args.length < 2) {
+			System.out.println("Please enter the following arguments for "
+					+ "this program (seperated by spaces): ");
+			System.out.println("Argument 1: The name of the library file "
+					+ "which will be written");
+			System.out.println("Argument 2: The number of patterns for each "
+					+ "phrase length and number of iterations, ex. 1000");
+			return;
+		}
+
+		try {
+			File file = new File(args[0]);
+			int patternsPerShape = Integer.parseInt(args[1]);
+
+			long start = System.nanoTime();
+
+			MelodyLibrary.write(file,
+					StructuredPolyphonicLSystemNotator.MIN_PHRASE_LENGTH,
+					StructuredPolyphonicLSystemNotator.MAX_PHRASE_LENGTH,
+					StructuredPolyphonicLSystemNotator.MIN_MELODY_ITERATIONS,
+					StructuredPolyphonicLSystemNotator.MAX_MELODY_ITERATIONS,
+					patternsPerShape, new Random());
+
+			long written = System.nanoTime();
+
+			// Open the library again, so as to check the file and show how
+			// long it takes to do so.
+			MelodyLibrary library = MelodyLibrary.open(file);
+
+			long opened = System.nanoTime();
+
+			System.out.println(String.format(
+					"Wrote %d patterns (%d bytes) in %.2f ms, "
+							+ "opened in %.3f ms.", library.getPatternCount(),
+					file.length(), (written - start) / 1e6,
+					(opened - written) / 1e6));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+
+/**
+ * Selects an index at random, with a probability proportional to the weight
+ * associated with that index.
+ * 
+ * The selection is performed using Walker's alias method, built with Vose's
+ * algorithm. The table is built once for a set of weights, after which each
+ * selection takes constant time and does not allocate any memory. All the
+ * arithmetic is performed on integers, so that the probability of each index
+ * is exactly its weight divided by the total weight.
+ */
+class AliasTable {
+	/**
+	 * The threshold for each column of the table. If a number drawn uniformly
+	 * from [0, total) is less than the threshold of a column, the column's own
+	 * index is selected. Otherwise, its alias is selected.
+	 */
+	private int[] thresholds;
+	/**
+	 * The alias of each column of the table.
+	 */
+	private int[] aliases;
+	/**
+	 * The sum of all the weights.
+	 */
+	private int total;
+
+	/**
+	 * 
+	 * @param weights
+	 *            the weight associated with each index. The weights cannot be
+	 *            negative, and at least one of them has to be positive.
+	 */
+	public AliasTable(int[] weights) {
+		int size = weights.length;
+
+		thresholds = new int[size];
+		aliases = new int[size];
+
+		// Sum the weights.
+		long sum = 0;
+
+		for (int weight : weights) {
+			if (weight < 0) {
+				throw new IllegalArgumentException(
+						"A weight cannot be negative.");
+			}
+
+			sum += weight;
+		}
+
+		if (sum <= 0 || sum > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"The sum of the weights must be positive and fit in an integer.");
+		}
+
+		total = (int) sum;
+
+		// Scale each weight by the number of columns, so that the average
+		// column holds exactly the total weight.
+		long[] scaledWeights = new long[size];
+
+		// The columns which hold less than, and at least, the total weight.
+		int[] smallColumns = new int[size];
+		int[] largeColumns = new int[size];
+		int smallCount = 0;
+		int largeCount = 0;
+
+		for (int index = 0; index < size; index++) {
+			scaledWeights[index] = (long) weights[index] * size;
+
+			if (scaledWeights[index] < total) {
+				smallColumns[smallCount++] = index;
+			} else {
+				largeColumns[largeCount++] = index;
+			}
+		}
+
+		// Fill each small column with the excess of a large one.
+		while (smallCount > 0 && largeCount > 0) {
+			int smallColumn = smallColumns[--smallCount];
+			int largeColumn = largeColumns[--largeCount];
+
+			thresholds[smallColumn] = (int) scaledWeights[smallColumn];
+			aliases[smallColumn] = largeColumn;
+
+			scaledWeights[largeColumn] -= total - scaledWeights[smallColumn];
+
+			if (scaledWeights[largeColumn] < total) {
+				smallColumns[smallCount++] = largeColumn;
+			} else {
+				largeColumns[largeCount++] = largeColumn;
+			}
+		}
+
+		// The remaining columns are full, and never select their alias.
+		while (largeCount > 0) {
+			int column = largeColumns[--largeCount];
+			thresholds[column] = total;
+			aliases[column] = column;
+		}
+
+		while (smallCount > 0) {
+			int column = smallColumns[--smallCount];
+			thresholds[column] = total;
+			aliases[column] = column;
+		}
+	}
+
+	/**
+	 * Creates a table from the columns of a table which has already been
+	 * built, for example one which has been read from a file.
+	 * 
+	 * @param thresholds
+	 *            the threshold for each column of the table.
+	 * @param aliases
+	 *            the alias of each column of the table.
+	 * @param total
+	 *            the sum of all the weights.
+	 */
+	AliasTable(int[] thresholds, int[] aliases, int total) {
+		this.thresholds = thresholds;
+		this.aliases = aliases;
+		this.total = total;
+	}
+
+	/**
+	 * Selects an index at random.
+	 * 
+	 * @param randomGenerator
+	 *            the random number generator used to make the selection.
+	 * @return the selected index.
+	 */
+	public int select(Random randomGenerator) {
+		// If there is only a single index, there is nothing to select.
+		if (thresholds.length == 1) {
+			return 0;
+		}
+
+		// Select a column, and then choose between the column and its alias.
+		int column = randomGenerator.nextInt(thresholds.length);
+
+		if (thresholds[column] == total
+				|| randomGenerator.nextInt(total) < thresholds[column]) {
+			return column;
+		}
+
+		return aliases[column];
+	}
+
+	/**
+	 * Returns the number of indices in this table.
+	 * 
+	 * @return the number of indices in this table.
+	 */
+	public int size() {
+		return thresholds.length;
+	}
+
+	/**
+	 * Returns the threshold for each column of the table. The array is owned
+	 * by the table, and must not be modified.
+	 * 
+	 * @return the threshold for each column of the table.
+	 */
+	int[] getThresholds() {
+		return thresholds;
+	}
+
+	/**
+	 * Returns the alias of each column of the table. The array is owned by the
+	 * table, and must not be modified.
+	 * 
+	 * @return the alias of each column of the table.
+	 */
+	int[] getAliases() {
+		return aliases;
+	}
+
+	/**
+	 * Returns the sum of all the weights.
+	 * 
+	 * @return the sum of all the weights.
+	 */
+	int getTotal() {
+		return total;
+	}
+}
@@ -31,6 +31,13 @@ package rrhvella.composition;
 
 /**
  * The harmonic information occupying a span of time.
+ * 
+ * There are only as many chords as there are combinations of a tonic and a
+ * chord type, so the chords are shared instances, which are obtained through
+ * {@link #valueOf(Note, ChordType)}. The public constructor is kept for
+ * compatibility, and returns a copy of the shared chord. Each chord holds a table of the MIDI
+ * notes at its degrees in each octave, so resolving a note of a melody is a
+ * single array lookup.
  */
 public class Chord {
 	/**
@@ -42,6 +49,35 @@ public class Chord {
 	 * The maximum MIDI note.
 	 */
 	private static final int MAX_MIDI = 127;
+	/**
+	 * The highest octave held by the table of MIDI notes of each chord. The
+	 * table covers every octave from 0 up to this one, which are all the
+	 * octaves of the MIDI notes.
+	 */
+	private static final int MAX_TABLE_OCTAVE = MAX_MIDI / NOTES_IN_AN_OCTAVE;
+	/**
+	 * The largest absolute chord degree held by the table of MIDI notes of
+	 * each chord. The degrees of a triad which are this far from its tonic
+	 * span twelve octaves, more than the whole range of MIDI notes, so the
+	 * notes outside of the table are only resolved on demand.
+	 */
+	private static final int MAX_TABLE_DEGREE = 36;
+	/**
+	 * The number of chord degrees held by the table of MIDI notes of each
+	 * chord, for each octave.
+	 */
+	private static final int TABLE_DEGREE_COUNT = 2 * MAX_TABLE_DEGREE + 1;
+	/**
+	 * The number of chord types.
+	 */
+	private static final int CHORD_TYPE_COUNT = ChordType.values().length;
+	/**
+	 * The shared chords, indexed by the MIDI note of their tonic, and then by
+	 * their type.
+	 * 
+	 * @see #valueOf(Note, ChordType)
+	 */
+	private static final Chord[] chords = createChords();
 	/**
 	 * The MIDI note equivalent to the chord's tonic.
 	 */
@@ -52,6 +88,13 @@ public class Chord {
 	 * @see ChordType
 	 */
 	private int[] pattern;
+	/**
+	 * The MIDI note at each chord degree, from -{@link #MAX_TABLE_DEGREE} to
+	 * {@link #MAX_TABLE_DEGREE}, in each octave, from 0 to
+	 * {@link #MAX_TABLE_OCTAVE}. The notes are indexed by octave, and then by
+	 * degree.
+	 */
+	private byte[] midiNotes;
 
 	/**
 	 * 
@@ -59,12 +102,80 @@ public class Chord {
 	 *            the tonic of the chord.
 	 * @param type
 	 *            the classification of the chord.
+	 * @deprecated Use {@link #valueOf(Note, ChordType)}, which returns the
+	 *             shared chord instead of creating a new one. The new chord
+	 *             shares the table of MIDI notes of the shared chord.
 	 */
+	@Deprecated
 	public Chord(Note tonic, ChordType type) {
-		// Get the MIDI note for the tonic.
-		this.tonic = tonic.getMidiNote();
-		// Set the pattern for the chord.
-		pattern = type.getPattern();
+		Chord shared = valueOf(tonic, type);
+
+		this.tonic = shared.tonic;
+		pattern = shared.pattern;
+		midiNotes = shared.midiNotes;
+	}
+
+	/**
+	 * Creates a shared chord, and resolves its table of MIDI notes.
+	 * 
+	 * @param tonic
+	 *            the MIDI note equivalent to the tonic of the chord.
+	 * @param pattern
+	 *            the interval pattern of the chord.
+	 */
+	private Chord(byte tonic, int[] pattern) {
+		this.tonic = tonic;
+		this.pattern = pattern;
+
+		// Resolve the note at each chord degree in each octave of the table.
+		midiNotes = new byte[(MAX_TABLE_OCTAVE + 1) * TABLE_DEGREE_COUNT];
+
+		for (int octave = 0; octave <= MAX_TABLE_OCTAVE; octave++) {
+			for (int chordDegree = -MAX_TABLE_DEGREE; chordDegree <= MAX_TABLE_DEGREE; chordDegree++) {
+				midiNotes[octave * TABLE_DEGREE_COUNT + chordDegree
+						+ MAX_TABLE_DEGREE] = resolveMidiNote(chordDegree,
+						octave);
+			}
+		}
+	}
+
+	/**
+	 * Creates the shared chords, one for each combination of a tonic and a
+	 * chord type.
+	 * 
+	 * @return the shared chords.
+	 */
+	private static Chord[] createChords() {
+		Chord[] result = new Chord[NOTES_IN_AN_OCTAVE * CHORD_TYPE_COUNT];
+
+		// Notes which are spelt differently, such as C sharp and D flat, have
+		// the same MIDI note, and therefore share the same chords.
+		for (Note note : Note.values()) {
+			for (ChordType type : ChordType.values()) {
+				int index = note.getMidiNote() * CHORD_TYPE_COUNT
+						+ type.ordinal();
+
+				if (result[index] == null) {
+					result[index] = new Chord(note.getMidiNote(),
+							type.getPattern());
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the chord with the given tonic and type.
+	 * 
+	 * @param tonic
+	 *            the tonic of the chord.
+	 * @param type
+	 *            the classification of the chord.
+	 * @return the shared chord with the given tonic and type.
+	 */
+	public static Chord valueOf(Note tonic, ChordType type) {
+		return chords[tonic.getMidiNote() * CHORD_TYPE_COUNT + type.ordinal()];
 	}
 
 	/**
@@ -79,6 +190,30 @@ public class Chord {
 	 * @return the MIDI note at the given chord degree and octave.
 	 */
 	public byte getMidiNote(int chordDegree, int octave) {
+		// Look the note up in the table, if it covers the given degree and
+		// octave.
+		if (octave >= 0 && octave <= MAX_TABLE_OCTAVE
+				&& chordDegree >= -MAX_TABLE_DEGREE
+				&& chordDegree <= MAX_TABLE_DEGREE) {
+			return midiNotes[octave * TABLE_DEGREE_COUNT + chordDegree
+					+ MAX_TABLE_DEGREE];
+		}
+
+		return resolveMidiNote(chordDegree, octave);
+	}
+
+	/**
+	 * Resolves the MIDI note at the given chord degree and octave by walking
+	 * the interval pattern of this chord.
+	 * 
+	 * @param chordDegree
+	 *            the degree of the new note in this chord.
+	 * @param octave
+	 *            the octave of the chord.
+	 * @return the MIDI note at the given chord degree and octave.
+	 * @see #getMidiNote(int, int)
+	 */
+	private byte resolveMidiNote(int chordDegree, int octave) {
 		// The MIDI note.
 		int note = tonic;
 		// The direction of the chord degree. 1 if it is positive, -1 if it is
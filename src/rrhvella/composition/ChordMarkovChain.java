@@ -0,0 +1,198 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+
+/**
+ * A first-order Markov chain over the chords of a chord grammar.
+ * 
+ * The productions of a chord grammar rewrite a single chord as itself,
+ * followed by the chord which succeeds it, so each chord of the grammar is a
+ * state of the chain, and the weight of each production is the weight of the
+ * transition from its predecessor to the chord which it appends. The
+ * transitions are held as chord ids in a flat table, indexed by the id of the
+ * chord which they leave, and each chord has an alias table which selects one
+ * of its transitions in constant time. A progression is sampled straight into
+ * an array of chord ids, and the id of each chord is its symbol in
+ * {@link ChordProfiles#CHORD_ALPHABET}.
+ */
+public class ChordMarkovChain {
+	/**
+	 * The id of the chord which starts every progression.
+	 */
+	private int initialChord;
+	/**
+	 * The index of the first transition of each chord in
+	 * {@link #transitionTargets}. The transitions of a chord end where those of
+	 * the next chord start.
+	 */
+	private int[] transitionOffsets;
+	/**
+	 * The ids of the chords reached by the transitions of every chord.
+	 */
+	private int[] transitionTargets;
+	/**
+	 * The table which selects one of the transitions of each chord, according
+	 * to their weights, or null if the chord does not have any transitions.
+	 */
+	private AliasTable[] transitionSelectors;
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the chord grammar whose productions give the transitions of
+	 *            this chain. Each predecessor of the grammar must be a single
+	 *            chord without any context, which is rewritten as itself
+	 *            followed by a single chord.
+	 * @see Scale#getChordGrammar()
+	 */
+	public ChordMarkovChain(Grammar grammar) {
+		String axiom = grammar.getAxiom();
+
+		if (axiom.length() != 1) {
+			throw new IllegalArgumentException(
+					"The axiom of a chord grammar must be a single chord.");
+		}
+
+		initialChord = axiom.charAt(0);
+
+		PredecessorTrie trie = grammar.getPredecessorTrie();
+		int chordCount = ChordProfiles.CHORD_COUNT;
+
+		transitionOffsets = new int[chordCount + 1];
+		transitionTargets = new int[trie.getCandidateCount()];
+		transitionSelectors = new AliasTable[chordCount];
+
+		// The number of transitions which have been added to the table.
+		int transitionCount = 0;
+
+		// For each chord.
+		for (int chord = 0; chord < chordCount; chord++) {
+			transitionOffsets[chord] = transitionCount;
+
+			// The node which is reached by the chord on its own. If it has no
+			// candidates, then the chord is never rewritten, and it has no
+			// transitions.
+			int node = trie.getChild(PredecessorTrie.ROOT, (char) chord);
+
+			if (node == PredecessorTrie.NO_NODE
+					|| trie.getCandidateSelector(node) == null) {
+				continue;
+			}
+
+			int candidateStart = trie.getCandidateStart(node);
+			int candidateEnd = trie.getCandidateStart(node + 1);
+
+			// The weight of each transition of the chord.
+			int[] weights = new int[candidateEnd - candidateStart];
+
+			for (int candidateIndex = candidateStart; candidateIndex < candidateEnd; candidateIndex++) {
+				char[] successor = trie.getCandidateSuccessor(candidateIndex);
+
+				// Only productions which append a single chord to their
+				// predecessor describe a transition.
+				if (trie.getCandidate(candidateIndex).getContextLength() != 1
+						|| successor.length != 2 || successor[0] != chord) {
+					throw new IllegalArgumentException(
+							"The grammar is not a first-order chord grammar.");
+				}
+
+				transitionTargets[transitionCount++] = successor[1];
+				weights[candidateIndex - candidateStart] = trie.getCandidate(
+						candidateIndex).getProbability();
+			}
+
+			transitionSelectors[chord] = new AliasTable(weights);
+		}
+
+		transitionOffsets[chordCount] = transitionCount;
+	}
+
+	/**
+	 * Returns the id of the chord which starts every progression.
+	 * 
+	 * @return the id of the chord which starts every progression.
+	 */
+	public int getInitialChord() {
+		return initialChord;
+	}
+
+	/**
+	 * Randomly selects the chord which follows the given chord, according to
+	 * the weights of its transitions. A chord without any transitions is
+	 * followed by itself.
+	 * 
+	 * @param chord
+	 *            the id of the current chord.
+	 * @param randomGenerator
+	 *            the random number generator used to make the selection.
+	 * @return the id of the next chord.
+	 */
+	public int next(int chord, Random randomGenerator) {
+		AliasTable selector = transitionSelectors[chord];
+
+		if (selector == null) {
+			return chord;
+		}
+
+		return transitionTargets[transitionOffsets[chord]
+				+ selector.select(randomGenerator)];
+	}
+
+	/**
+	 * Samples a progression of the given length, starting from the initial
+	 * chord, and stores the ids of its chords at the start of the given
+	 * array.
+	 * 
+	 * @param progression
+	 *            the array which receives the ids of the chords. It must hold
+	 *            at least length elements.
+	 * @param length
+	 *            the number of chords in the progression.
+	 * @param randomGenerator
+	 *            the random number generator used to select the transitions.
+	 */
+	public void sample(int[] progression, int length, Random randomGenerator) {
+		if (length <= 0) {
+			return;
+		}
+
+		int chord = initialChord;
+		progression[0] = chord;
+
+		// Walk the chain, one transition for each subsequent chord.
+		for (int chordIndex = 1; chordIndex < length; chordIndex++) {
+			chord = next(chord, randomGenerator);
+			progression[chordIndex] = chord;
+		}
+	}
+
+}
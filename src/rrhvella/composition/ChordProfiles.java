@@ -62,6 +62,60 @@ public class ChordProfiles {
 			MAJOR_TRIAD, MAJOR_TRIAD, MINOR_TRIAD, MINOR_TRIAD, MAJOR_TRIAD,
 			MINOR_TRIAD, MAJOR_TRIAD, MINOR_TRIAD, MAJOR_TRIAD, MINOR_TRIAD };
 
+	/**
+	 * The alphabet of the chord grammar. Each chord is a single symbol, whose
+	 * token is the interval of its tonic from the key's tonic, as two
+	 * characters (01 - 12), followed by the character of its chord type. For
+	 * example, 01m represents a minor triad in the tonic of the key, and 08M
+	 * represents a major triad in the dominant of the key.
+	 * 
+	 * The chords are interned in order of their interval, minor before major,
+	 * so the symbol of a chord is twice its interval, plus one if it is a
+	 * major triad. The alphabet is frozen once the chords have been interned,
+	 * so no other token can be added to it.
+	 */
+	public static final SymbolAlphabet CHORD_ALPHABET = getChordAlphabet();
+	/**
+	 * The number of chords in {@link #CHORD_ALPHABET}.
+	 */
+	public static final int CHORD_COUNT = CHORD_ALPHABET.size();
+	/**
+	 * The interval from the key's tonic of the chord with each symbol. This
+	 * is read from the tokens of {@link #CHORD_ALPHABET}, so the alphabet is
+	 * the only place which defines the symbol of each chord.
+	 */
+	private static final int[] symbolIntervals = new int[CHORD_COUNT];
+	/**
+	 * The character of the chord type of the chord with each symbol.
+	 */
+	private static final char[] symbolTypes = new char[CHORD_COUNT];
+	/**
+	 * The symbol of the minor triad at each interval from the key's tonic.
+	 */
+	private static final char[] minorSymbols = new char[Chord.NOTES_IN_AN_OCTAVE];
+	/**
+	 * The symbol of the major triad at each interval from the key's tonic.
+	 */
+	private static final char[] majorSymbols = new char[Chord.NOTES_IN_AN_OCTAVE];
+
+	static {
+		// Read the interval and the chord type of each chord from its token.
+		for (char symbol = 0; symbol < CHORD_COUNT; symbol++) {
+			String token = CHORD_ALPHABET.getToken(symbol);
+			int interval = Integer.parseInt(token.substring(0, 2)) - 1;
+			char character = token.charAt(2);
+
+			symbolIntervals[symbol] = interval;
+			symbolTypes[symbol] = character;
+
+			if (character == MAJOR_TRIAD) {
+				majorSymbols[interval] = symbol;
+			} else {
+				minorSymbols[interval] = symbol;
+			}
+		}
+	}
+
 	/**
 	 * Returns the chord type associated with the given character. If an invalid
 	 * character is given, ChordType.MINOR_TRIAD will be returned by default.
@@ -80,4 +134,65 @@ public class ChordProfiles {
 			return ChordType.MINOR_TRIAD;
 		}
 	}
+
+	/**
+	 * Returns the symbol of the chord grammar for the chord at the given
+	 * interval from the key's tonic.
+	 * 
+	 * @param interval
+	 *            the interval between the tonic of the chord and the tonic of
+	 *            the key (0 - 11).
+	 * @param character
+	 *            the character of the chord type ({@link #MINOR_TRIAD} or
+	 *            {@link #MAJOR_TRIAD}).
+	 * @return the symbol of the chord.
+	 * @see ChordProfiles#CHORD_ALPHABET
+	 */
+	public static char chordSymbol(int interval, char character) {
+		return character == MAJOR_TRIAD ? majorSymbols[interval]
+				: minorSymbols[interval];
+	}
+
+	/**
+	 * Returns the interval between the tonic of the chord with the given
+	 * symbol, and the tonic of the key.
+	 * 
+	 * @param symbol
+	 *            the symbol of the chord.
+	 * @return the interval between the tonic of the chord and the tonic of the
+	 *         key (0 - 11).
+	 * @see ChordProfiles#CHORD_ALPHABET
+	 */
+	public static int intervalFromSymbol(char symbol) {
+		return symbolIntervals[symbol];
+	}
+
+	/**
+	 * Returns the chord type of the chord with the given symbol.
+	 * 
+	 * @param symbol
+	 *            the symbol of the chord.
+	 * @return the chord type of the chord.
+	 * @see ChordProfiles#CHORD_ALPHABET
+	 */
+	public static ChordType chordTypeFromSymbol(char symbol) {
+		return chordTypeFromCharacter(symbolTypes[symbol]);
+	}
+
+	/**
+	 * Returns the alphabet of the chord grammar.
+	 * 
+	 * @return the alphabet of the chord grammar, which has been frozen.
+	 */
+	private static SymbolAlphabet getChordAlphabet() {
+		SymbolAlphabet alphabet = new SymbolAlphabet();
+
+		// Intern the minor and the major triad of each interval, in order.
+		for (int interval = 0; interval < Chord.NOTES_IN_AN_OCTAVE; interval++) {
+			alphabet.intern(String.format("%02d", interval + 1) + MINOR_TRIAD);
+			alphabet.intern(String.format("%02d", interval + 1) + MAJOR_TRIAD);
+		}
+
+		return alphabet.freeze();
+	}
 }
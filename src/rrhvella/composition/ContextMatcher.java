@@ -0,0 +1,58 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+/**
+ * Finds the productions of a grammar which fit the context starting from a
+ * position in a string of symbols.
+ * 
+ * The productions are identified by the node of the grammar's predecessor
+ * trie which holds them. The trie itself is the interpreted implementation of
+ * this interface, while {@link MatcherCompiler} builds trees of method handles
+ * which perform the same search with the trie unrolled.
+ * 
+ * @see PredecessorTrie
+ */
+public interface ContextMatcher {
+	/**
+	 * Returns the deepest node of the predecessor trie with at least one
+	 * candidate, which is reached by walking the given symbols starting from
+	 * charIndex. If no such node exists, then -1 is returned.
+	 * 
+	 * @param source
+	 *            the symbols which are being matched.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param charIndex
+	 *            the index which is mapped to the beginning of the context.
+	 * @return the deepest node with at least one candidate, or -1.
+	 */
+	int match(char[] source, int sourceLength, int charIndex);
+}
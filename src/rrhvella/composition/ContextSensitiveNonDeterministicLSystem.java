@@ -30,86 +30,25 @@ either expressed or implied, of the FreeBSD Project.
 package rrhvella.composition;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * Specifies a context-sensitive stochastic L-system. A description of such a
  * system is given in the essay submitted for the first part of this coursework.
+ * 
+ * The system is made of a {@link Grammar}, which holds the productions and may
+ * be shared, and a {@link Derivation}, which holds the current string and the
+ * random number generator of this system.
  */
 public class ContextSensitiveNonDeterministicLSystem {
 	/**
-	 * The productions for this grammar.
+	 * The grammar of this system.
 	 */
-	private HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions;
+	private Grammar grammar;
 	/**
-	 * The string generated by the last iteration.
+	 * The derivation which holds the current string of this system.
 	 */
-	protected String currentString;
-	/**
-	 * The axiom for this grammar.
-	 */
-	private String axiom;
-	/**
-	 * The set of predecessors for the productions of this grammar.
-	 */
-	private Set<ContextSensitiveNonDeterministicPredecessor> predecessors;
-	/**
-	 * The random number generator used to simulate stochastic processes in this
-	 * system.
-	 */
-	private Random randomGenerator;
-	/**
-	 * The value of the flag, 'change entire context'.
-	 * 
-	 * @see ContextSensitiveNonDeterministicLSystem#ContextSensitiveNonDeterministicLSystem(String,
-	 *      HashMap, boolean)
-	 */
-	private boolean changeEntireContext;
-
-	/**
-	 * 
-	 * @author Stark
-	 * 
-	 *         This inner class is used to map a predecessor, from this
-	 *         grammar's products, to a probability index.
-	 * @see ContextSensitiveNonDeterministicLSystem#process(String)
-	 */
-	private class PredecessorProbabilityIndexPair {
-		/**
-		 * The predecessor in this relationship.
-		 */
-		public ContextSensitiveNonDeterministicPredecessor predecessor;
-		/**
-		 * The probability index in this relationship.
-		 */
-		public int probabilityIndex;
-
-		/**
-		 * 
-		 * @param predecessor
-		 *            the predecessor in this relationship.
-		 * @param probabilityIndex
-		 *            the probability index in this relationship.
-		 * @see ContextSensitiveNonDeterministicPredecessor
-		 */
-		public PredecessorProbabilityIndexPair(
-				ContextSensitiveNonDeterministicPredecessor predecessor,
-				int probabilityIndex) {
-			this.predecessor = predecessor;
-			this.probabilityIndex = probabilityIndex;
-		}
-	}
-
-	/**
-	 * Returns the axiom for this grammar.
-	 * 
-	 * @return the axiom for this grammar.
-	 */
-	public String getAxiom() {
-		return axiom;
-	}
+	private Derivation derivation;
 
 	/**
 	 * 
@@ -143,14 +82,75 @@ public class ContextSensitiveNonDeterministicLSystem {
 			String axiom,
 			HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions,
 			boolean changeEntireContext) {
-		this.axiom = axiom;
-		this.currentString = axiom;
-		this.productions = productions;
-		this.randomGenerator = new Random();
-		this.changeEntireContext = changeEntireContext;
-
-		// Get the predecessors from the keys of the productions set.
-		this.predecessors = productions.keySet();
+		this(new Grammar(axiom, productions, changeEntireContext));
+	}
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the grammar of this system, which may be shared with other
+	 *            systems.
+	 */
+	public ContextSensitiveNonDeterministicLSystem(Grammar grammar) {
+		this.grammar = grammar;
+		this.derivation = grammar.newDerivation(new Random());
+	}
+
+	/**
+	 * Returns the grammar of this system.
+	 * 
+	 * @return the grammar of this system.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Returns the derivation which holds the current string of this system.
+	 * 
+	 * @return the derivation which holds the current string of this system.
+	 */
+	public Derivation getDerivation() {
+		return derivation;
+	}
+
+	/**
+	 * Returns the axiom for this grammar.
+	 * 
+	 * @return the axiom for this grammar.
+	 */
+	public String getAxiom() {
+		return grammar.getAxiom();
+	}
+
+	/**
+	 * Returns the length of the longest context in this grammar.
+	 * 
+	 * @return the length of the longest context in this grammar.
+	 */
+	public int getMaxContextLength() {
+		return grammar.getMaxContextLength();
+	}
+
+	/**
+	 * Compiles the productions of this grammar into a matcher which matches
+	 * their contexts with the trie unrolled, and uses it for every subsequent
+	 * rewrite.
+	 * 
+	 * @return true if the compiled matcher is now in use.
+	 * @see Grammar#compile()
+	 */
+	public boolean compileProductions() {
+		Grammar compiledGrammar = grammar.compile();
+
+		if (compiledGrammar == grammar) {
+			return false;
+		}
+
+		grammar = compiledGrammar;
+		derivation.setGrammar(compiledGrammar);
+
+		return true;
 	}
 
 	/**
@@ -162,100 +162,37 @@ public class ContextSensitiveNonDeterministicLSystem {
 	 * @return the result of the rewriting process.
 	 */
 	public String process(String source) {
-		// The buffer which will contain the result as it is being generated.
-		StringBuffer result = new StringBuffer();
-		// The length of the source string.
-		int stringLength = source.length();
-
-		// For each character in the source string.
-		for (int charIndex = 0; charIndex < stringLength; charIndex++) {
-			/*
-			 * Algorithm description:
-			 * 
-			 * Find the vector of valid productions R. A production is valid if
-			 * and only if it fits the context starting from the current
-			 * character.
-			 * 
-			 * Assign a probability index P(n) to each production, such that
-			 * P(n) = P(n - 1) + the probability of R(n), P(-1) = 0.
-			 * 
-			 * To select the production for the current character, first
-			 * generate a random number x, such that 1 <= x <= the number of
-			 * productions. Then, iterate through R starting from the last
-			 * element and moving back, until R(k) is found, such that P(k) < x.
-			 * 
-			 * Replace the context starting from the current character with the
-			 * successor of R(k). If the 'change entire context' flag is false,
-			 * then only replace the predecessor.
-			 */
-
-			// Initialise the probability index.
-			int probabilityIndex = 0;
-
-			// The rules which fit the context starting from the current
-			// character.
-			LinkedList<PredecessorProbabilityIndexPair> possibleRules = new LinkedList<PredecessorProbabilityIndexPair>();
-
-			// For each predecessor.
-			for (ContextSensitiveNonDeterministicPredecessor predecessor : predecessors) {
-				// Confirm that the context is valid.
-				if (predecessor.isContextValid(source, charIndex)) {
-					// Add this rule to the list of possible rules, and
-					// associate a probability index with it.
-					probabilityIndex += predecessor.getProbability();
-					possibleRules.add(new PredecessorProbabilityIndexPair(
-							predecessor, probabilityIndex));
-				}
-			}
-
-			// If no predecessor is valid, add the same character to the
-			// resultant string and continue to the next loop iteration.
-			if (possibleRules.size() == 0) {
-				result.append(source.charAt(charIndex));
-				continue;
-			}
-
-			// Randomly select one of the rules.
-			int ruleSelector = randomGenerator.nextInt(probabilityIndex);
-			PredecessorProbabilityIndexPair currentProbabilityIndexPair = possibleRules
-					.pop();
-
-			while (currentProbabilityIndexPair.probabilityIndex < ruleSelector + 1) {
-				currentProbabilityIndexPair = possibleRules.pop();
-			}
-
-			// If the 'change entire context' flag is false, then append the
-			// preceding context for this production.
-			if (!changeEntireContext) {
-				result.append(currentProbabilityIndexPair.predecessor
-						.getPrecedingContext());
-			}
-
-			// Append the successor of the production.
-			result.append(productions
-					.get(currentProbabilityIndexPair.predecessor));
-
-			// If the 'change entire context' flag is false, then append the
-			// proceeding context for this production.
-			if (!changeEntireContext) {
-				result.append(currentProbabilityIndexPair.predecessor
-						.getProceedingContext());
-			}
-
-			// If the 'change entire context' flag is true, then the context in
-			// the source string should be skipped, as it will be completely
-			// replaced.
-			if (changeEntireContext) {
-				charIndex += currentProbabilityIndexPair.predecessor
-						.getContextLength() - 1;
-			}
+		return grammar.process(source, derivation.getRandomGenerator());
+	}
 
-		}
+	/**
+	 * Process the given string in parallel, according to the rewriting rules
+	 * of this grammar, and return the result.
+	 * 
+	 * @param source
+	 *            the string which will be rewritten.
+	 * @param seed
+	 *            the seed which determines the productions selected.
+	 * @return the result of the rewriting process.
+	 * @see Grammar#processParallel(String, long)
+	 */
+	public String processParallel(String source, long seed) {
+		return grammar.processParallel(source, seed);
+	}
 
-		/**
-		 * Return the result.
-		 */
-		return result.toString();
+	/**
+	 * Limits the number of symbols which a generation of this system may hold.
+	 * 
+	 * @param symbolBudget
+	 *            the largest number of symbols which a generation may hold.
+	 * @param budgetPolicy
+	 *            what the system does when the next generation would not fit
+	 *            in the budget.
+	 * @see Derivation#setSymbolBudget(int, SymbolBudgetPolicy)
+	 */
+	public void setSymbolBudget(int symbolBudget,
+			SymbolBudgetPolicy budgetPolicy) {
+		derivation.setSymbolBudget(symbolBudget, budgetPolicy);
 	}
 
 	/**
@@ -264,16 +201,100 @@ public class ContextSensitiveNonDeterministicLSystem {
 	 * @return the next string in the system.
 	 */
 	public String next() {
-		currentString = process(currentString);
+		return derivation.next();
+	}
+
+	/**
+	 * Processes the current symbols, without creating a string for the result.
+	 * 
+	 * @see Derivation#advance()
+	 */
+	public void advance() {
+		derivation.advance();
+	}
+
+	/**
+	 * Processes the current symbols in parallel, without creating a string for
+	 * the result.
+	 * 
+	 * @param seed
+	 *            the seed which determines the productions selected. A
+	 *            different seed should be used for each generation.
+	 * @see Derivation#advanceParallel(long)
+	 */
+	public void advanceParallel(long seed) {
+		derivation.advanceParallel(seed);
+	}
 
-		return currentString;
+	/**
+	 * Returns a cursor which streams the symbols of the given generation,
+	 * derived from the axiom, without building any of the generations.
+	 * 
+	 * @param generation
+	 *            the generation which will be streamed. Generation 0 is the
+	 *            axiom.
+	 * @return a cursor over the symbols of the given generation.
+	 * @see Derivation#stream(int)
+	 */
+	public GenerationCursor stream(int generation) {
+		return derivation.stream(generation);
+	}
+
+	/**
+	 * Derives exactly the given number of symbols from the axiom, and appends
+	 * them to the given buffer.
+	 * 
+	 * @param symbolCount
+	 *            the number of symbols which will be derived.
+	 * @param result
+	 *            the buffer to which the symbols will be appended.
+	 * @see Derivation#derive(int, SymbolBuffer)
+	 */
+	public void derive(int symbolCount, SymbolBuffer result) {
+		derivation.derive(symbolCount, result);
+	}
+
+	/**
+	 * Derives the given generation from the axiom, and stores it as a
+	 * hash-consed graph, in which repeated substructures are shared.
+	 * 
+	 * @param generation
+	 *            the generation which will be derived. Generation 0 is the
+	 *            axiom.
+	 * @return the graph which holds the generation.
+	 * @see Derivation#deriveDag(int)
+	 */
+	public DerivationDag deriveDag(int generation) {
+		return derivation.deriveDag(generation);
+	}
+
+	/**
+	 * Takes a snapshot of the current generation.
+	 * 
+	 * @return the snapshot of the current generation.
+	 * @see Derivation#snapshot()
+	 */
+	public DerivationSnapshot snapshot() {
+		return derivation.snapshot();
+	}
+
+	/**
+	 * Replaces the current generation with the one held by the given
+	 * snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot of the generation.
+	 * @see Derivation#restore(DerivationSnapshot)
+	 */
+	public void restore(DerivationSnapshot snapshot) {
+		derivation.restore(snapshot);
 	}
 
 	/**
 	 * Reverts the current string back to the axiom.
 	 */
 	public void reset() {
-		currentString = axiom;
+		derivation.reset();
 	}
 
 	/**
@@ -282,7 +303,17 @@ public class ContextSensitiveNonDeterministicLSystem {
 	 * @return the current string.
 	 */
 	public String getCurrentString() {
-		return currentString;
+		return derivation.getCurrentString();
+	}
+
+	/**
+	 * Returns the buffer which holds the current symbols.
+	 * 
+	 * @return the buffer which holds the current symbols.
+	 * @see Derivation#getCurrentSymbols()
+	 */
+	public SymbolBuffer getCurrentSymbols() {
+		return derivation.getCurrentSymbols();
 	}
 
 }
@@ -54,6 +54,11 @@ public class ContextSensitiveNonDeterministicPredecessor {
 	 * The length of the entire context.
 	 */
 	private int contextLength;
+	/**
+	 * The symbols of the entire context, which are compared against arrays of
+	 * symbols by {@link #isContextValid(char[], int, int)}.
+	 */
+	private char[] contextSymbols;
 
 	/**
 	 * Returns the probability that the production mapped to this predecessor
@@ -87,6 +92,7 @@ public class ContextSensitiveNonDeterministicPredecessor {
 		// Store the context of this predecessor, as well as its length.
 		context = precedingContext + letter + proceedingContext;
 		contextLength = context.length();
+		contextSymbols = context.toCharArray();
 	}
 
 	/**
@@ -150,6 +156,38 @@ public class ContextSensitiveNonDeterministicPredecessor {
 		return true;
 	}
 
+	/**
+	 * Returns true if the symbols starting from charIndex equal the context of
+	 * this predecessor.
+	 * 
+	 * @param source
+	 *            the symbols which are being checked.
+	 * @param sourceLength
+	 *            the number of valid symbols in the source.
+	 * @param charIndex
+	 *            the index which is mapped to the beginning of the context.
+	 * @return true if the symbols starting from charIndex equal the context of
+	 *         this predecessor.
+	 */
+	public boolean isContextValid(char[] source, int sourceLength,
+			int charIndex) {
+		// If the context, starting from charIndex, is longer than the source,
+		// then return false.
+		if (charIndex + contextLength > sourceLength) {
+			return false;
+		}
+
+		// For every character in the context of the predecessor.
+		for (int contextCharIndex = 0; contextCharIndex < contextLength; contextCharIndex++) {
+			if (source[contextCharIndex + charIndex] != contextSymbols[contextCharIndex]) {
+				return false;
+			}
+		}
+
+		// If no inconsistencies have been found, return true.
+		return true;
+	}
+
 	/**
 	 * Returns the length of the predecessor's context.
 	 * 
@@ -159,6 +197,15 @@ public class ContextSensitiveNonDeterministicPredecessor {
 		return contextLength;
 	}
 
+	/**
+	 * Returns the entire context of the predecessor, including the letter.
+	 * 
+	 * @return the entire context of the predecessor, including the letter.
+	 */
+	public String getContext() {
+		return context;
+	}
+
 	/**
 	 * Returns the context which precedes the predecessor's letter.
 	 * 
@@ -0,0 +1,522 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A single run of a grammar, which holds the current generation and the random
+ * number generator used to select the productions.
+ * 
+ * A derivation is cheap to create, since the productions are held by the
+ * grammar, which is shared. A derivation should only be used by one thread at a
+ * time, but any number of derivations of the same grammar can be run
+ * concurrently.
+ * 
+ * @see Grammar#newDerivation()
+ */
+public class Derivation {
+	/**
+	 * The number of source symbols rewritten at a time when a derivation has
+	 * to stop at a given length.
+	 * 
+	 * @see Derivation#derive(int, SymbolBuffer)
+	 */
+	private static final int DERIVATION_STEP = 64;
+	/**
+	 * The number of consecutive generations which may fail to grow before a
+	 * derivation of a given length is abandoned.
+	 * 
+	 * @see Derivation#derive(int, SymbolBuffer)
+	 */
+	private static final int MAX_STALLED_GENERATIONS = 64;
+
+	/**
+	 * The grammar whose productions are applied.
+	 */
+	private Grammar grammar;
+	/**
+	 * The symbols generated by the last iteration.
+	 */
+	private SymbolBuffer currentSymbols;
+	/**
+	 * The buffer into which the next iteration is generated. Once the
+	 * iteration is complete, it is swapped with the current symbols, so that
+	 * the same two buffers are reused for every iteration.
+	 */
+	private SymbolBuffer nextSymbols;
+	/**
+	 * The string generated by the last iteration. This is only created when it
+	 * is requested, and is null if the current symbols have changed since.
+	 */
+	private String currentString;
+	/**
+	 * The random number generator used to simulate stochastic processes in this
+	 * derivation.
+	 */
+	private Random randomGenerator;
+	/**
+	 * The largest number of symbols which a generation of this derivation is
+	 * allowed to hold.
+	 */
+	private int symbolBudget = SymbolBuffer.MAX_CAPACITY;
+	/**
+	 * What this derivation does when the next generation would not fit in its
+	 * budget.
+	 */
+	private SymbolBudgetPolicy budgetPolicy = SymbolBudgetPolicy.FAIL;
+	/**
+	 * The number of times the axiom was rewritten to reach the current
+	 * generation.
+	 */
+	private int generation;
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the grammar whose productions are applied.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 */
+	public Derivation(Grammar grammar, Random randomGenerator) {
+		this.grammar = grammar;
+		this.randomGenerator = randomGenerator;
+		this.currentString = grammar.getAxiom();
+		this.currentSymbols = new SymbolBuffer(grammar.getAxiom());
+		this.nextSymbols = new SymbolBuffer();
+	}
+
+	/**
+	 * Returns the grammar whose productions are applied.
+	 * 
+	 * @return the grammar whose productions are applied.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Replaces the grammar whose productions are applied. The new grammar must
+	 * have the same productions as the previous one.
+	 * 
+	 * @param grammar
+	 *            the grammar whose productions are applied.
+	 */
+	void setGrammar(Grammar grammar) {
+		this.grammar = grammar;
+	}
+
+	/**
+	 * Returns the random number generator used to select the productions.
+	 * 
+	 * @return the random number generator used to select the productions.
+	 */
+	public Random getRandomGenerator() {
+		return randomGenerator;
+	}
+
+	/**
+	 * Limits the number of symbols which a generation of this derivation may
+	 * hold. Each symbol takes up two bytes, and the derivation holds two
+	 * generations at a time, so the budget also bounds the memory used by the
+	 * derivation to four bytes per symbol.
+	 * 
+	 * Before a generation is rewritten, the smallest length which the next
+	 * one can have is checked against the budget. While it is being
+	 * rewritten, the buffer which holds it refuses to grow past the budget.
+	 * Therefore, an oversized generation is detected before its memory is
+	 * allocated.
+	 * 
+	 * @param symbolBudget
+	 *            the largest number of symbols which a generation may hold.
+	 * @param budgetPolicy
+	 *            what the derivation does when the next generation would not
+	 *            fit in the budget.
+	 */
+	public void setSymbolBudget(int symbolBudget,
+			SymbolBudgetPolicy budgetPolicy) {
+		if (symbolBudget < 0 || symbolBudget > SymbolBuffer.MAX_CAPACITY) {
+			throw new IllegalArgumentException("Invalid symbol budget: "
+					+ symbolBudget);
+		}
+
+		this.symbolBudget = symbolBudget;
+		this.budgetPolicy = budgetPolicy;
+	}
+
+	/**
+	 * Returns the largest number of symbols which a generation of this
+	 * derivation is allowed to hold.
+	 * 
+	 * @return the largest number of symbols which a generation is allowed to
+	 *         hold.
+	 */
+	public int getSymbolBudget() {
+		return symbolBudget;
+	}
+
+	/**
+	 * Returns what this derivation does when the next generation would not
+	 * fit in its budget.
+	 * 
+	 * @return what this derivation does when the next generation would not fit
+	 *         in its budget.
+	 */
+	public SymbolBudgetPolicy getBudgetPolicy() {
+		return budgetPolicy;
+	}
+
+	/**
+	 * Returns the number of times the axiom was rewritten to reach the current
+	 * generation.
+	 * 
+	 * @return the number of times the axiom was rewritten to reach the current
+	 *         generation.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Takes a snapshot of the current generation. The snapshot is not affected
+	 * by any later change to this derivation.
+	 * 
+	 * @return the snapshot of the current generation.
+	 */
+	public DerivationSnapshot snapshot() {
+		return new DerivationSnapshot(grammar, currentSymbols.getSymbols(),
+				currentSymbols.length(), generation);
+	}
+
+	/**
+	 * Replaces the current generation with the one held by the given
+	 * snapshot. The buffers of this derivation are reused, so restoring a
+	 * snapshot does not allocate memory once they are large enough.
+	 * 
+	 * @param snapshot
+	 *            the snapshot of the generation.
+	 */
+	public void restore(DerivationSnapshot snapshot) {
+		snapshot.copyTo(currentSymbols);
+		generation = snapshot.getGeneration();
+		currentString = null;
+	}
+
+	/**
+	 * Starts a new derivation from the current generation. The new derivation
+	 * has its own random number generator, seeded from the one of this
+	 * derivation, and the same symbol budget.
+	 * 
+	 * @return the new derivation.
+	 */
+	public Derivation fork() {
+		Derivation fork = new Derivation(grammar, new Random(
+				randomGenerator.nextLong()));
+
+		fork.setSymbolBudget(symbolBudget, budgetPolicy);
+		fork.currentSymbols.clear();
+		fork.currentSymbols.append(currentSymbols.getSymbols(), 0,
+				currentSymbols.length());
+		fork.generation = generation;
+		fork.currentString = currentString;
+
+		return fork;
+	}
+
+	/**
+	 * Processes the current string and returns the next one.
+	 * 
+	 * @return the next string in the derivation.
+	 */
+	public String next() {
+		advance();
+
+		return getCurrentString();
+	}
+
+	/**
+	 * Processes the current symbols, without creating a string for the result.
+	 * 
+	 * The result is written into a second buffer, which then becomes the
+	 * current one. The two buffers are reused for every iteration, so once they
+	 * have grown to the size of the derivation, advancing it does not allocate
+	 * any memory.
+	 * 
+	 * @throws SymbolBudgetExceededException
+	 *             if the next generation would not fit in the symbol budget,
+	 *             and the budget policy is {@link SymbolBudgetPolicy#FAIL}.
+	 * @see Derivation#getCurrentSymbols()
+	 * @see Derivation#setSymbolBudget(int, SymbolBudgetPolicy)
+	 */
+	public void advance() {
+		checkMinimumLength();
+
+		try {
+			grammar.process(currentSymbols.getSymbols(),
+					currentSymbols.length(), nextSymbols, randomGenerator);
+		} catch (SymbolBudgetExceededException exception) {
+			// Keep the current generation, unless the next one may be cut
+			// off at the budget.
+			if (budgetPolicy == SymbolBudgetPolicy.FAIL) {
+				throw exception;
+			}
+		}
+
+		swap();
+	}
+
+	/**
+	 * Processes the current symbols in parallel, without creating a string for
+	 * the result.
+	 * 
+	 * @param seed
+	 *            the seed which determines the productions selected. A
+	 *            different seed should be used for each generation.
+	 * @throws SymbolBudgetExceededException
+	 *             if the next generation would not fit in the symbol budget,
+	 *             and the budget policy is {@link SymbolBudgetPolicy#FAIL}.
+	 * @see Grammar#processParallel(char[], int, SymbolBuffer, long,
+	 *      ForkJoinPool)
+	 */
+	public void advanceParallel(long seed) {
+		checkMinimumLength();
+
+		try {
+			grammar.processParallel(currentSymbols.getSymbols(),
+					currentSymbols.length(), nextSymbols, seed,
+					ForkJoinPool.commonPool());
+		} catch (SymbolBudgetExceededException exception) {
+			// Keep the current generation, unless the next one may be cut
+			// off at the budget.
+			if (budgetPolicy == SymbolBudgetPolicy.FAIL) {
+				throw exception;
+			}
+		}
+
+		swap();
+	}
+
+	/**
+	 * Prepares the buffer for the next generation to be rewritten within the
+	 * symbol budget. If the budget policy is {@link SymbolBudgetPolicy#FAIL},
+	 * and even the shortest generation which the grammar can produce would
+	 * not fit in the budget, an exception is thrown straight away.
+	 * 
+	 * @throws SymbolBudgetExceededException
+	 *             if the next generation cannot fit in the symbol budget.
+	 */
+	private void checkMinimumLength() {
+		long minimumLength = grammar.getMinimumResultLength(currentSymbols
+				.length());
+
+		if (minimumLength > symbolBudget
+				&& budgetPolicy == SymbolBudgetPolicy.FAIL) {
+			throw new SymbolBudgetExceededException(symbolBudget,
+					minimumLength);
+		}
+
+		nextSymbols.setLimit(symbolBudget);
+	}
+
+	/**
+	 * Makes the next symbols the current ones.
+	 */
+	private void swap() {
+		// Swap the buffers.
+		SymbolBuffer previousSymbols = currentSymbols;
+		currentSymbols = nextSymbols;
+		nextSymbols = previousSymbols;
+
+		// The current string no longer reflects the current symbols.
+		currentString = null;
+		generation++;
+	}
+
+	/**
+	 * Returns a cursor which streams the symbols of the given generation,
+	 * derived from the axiom, without building any of the generations.
+	 * 
+	 * The cursor does not affect the current string of this derivation, but it
+	 * shares its random number generator.
+	 * 
+	 * @param generation
+	 *            the generation which will be streamed. Generation 0 is the
+	 *            axiom.
+	 * @return a cursor over the symbols of the given generation.
+	 * @see GenerationCursor
+	 */
+	public GenerationCursor stream(int generation) {
+		return grammar.stream(generation, randomGenerator);
+	}
+
+	/**
+	 * Derives exactly the given number of symbols from the axiom, and appends
+	 * them to the given buffer.
+	 * 
+	 * The generations are derived one after the other from the axiom, until
+	 * one is at least as long as the number of symbols required. The rewrite
+	 * of that generation stops as soon as enough symbols have been produced,
+	 * and the symbols produced are returned. Therefore, no generation is
+	 * derived more than once or thrown away, and the cost of the derivation is
+	 * linear in the number of symbols for a grammar whose generations grow
+	 * geometrically.
+	 * 
+	 * The productions of the grammar are applied directly, so any additional
+	 * filtering which a subclass of the grammar performs on whole generations
+	 * is not applied. The current string of this derivation is reverted back
+	 * to the axiom.
+	 * 
+	 * Since the generations stop growing once they are long enough, the
+	 * symbol budget only limits the number of symbols requested. If the
+	 * budget policy is {@link SymbolBudgetPolicy#TRUNCATE}, only the symbols
+	 * which fit in the budget are derived.
+	 * 
+	 * @param symbolCount
+	 *            the number of symbols which will be derived.
+	 * @param result
+	 *            the buffer to which the symbols will be appended.
+	 * @throws IllegalStateException
+	 *             if the generations stop growing before they are long
+	 *             enough.
+	 * @throws SymbolBudgetExceededException
+	 *             if the number of symbols requested is greater than the
+	 *             symbol budget, and the budget policy is
+	 *             {@link SymbolBudgetPolicy#FAIL}.
+	 */
+	public void derive(int symbolCount, SymbolBuffer result) {
+		if (symbolCount > symbolBudget) {
+			if (budgetPolicy == SymbolBudgetPolicy.FAIL) {
+				throw new SymbolBudgetExceededException(symbolBudget,
+						symbolCount);
+			}
+
+			symbolCount = symbolBudget;
+		}
+
+		reset();
+
+		// The number of consecutive generations which did not grow.
+		int stalledGenerations = 0;
+
+		// Derive the generations until one of them is long enough.
+		while (currentSymbols.length() < symbolCount) {
+			char[] source = currentSymbols.getSymbols();
+			int sourceLength = currentSymbols.length();
+			int charIndex = 0;
+
+			// The generation may overshoot the number of symbols by a few
+			// productions, so it is not bound by the budget.
+			nextSymbols.clear();
+			nextSymbols.setLimit(SymbolBuffer.MAX_CAPACITY);
+
+			// Rewrite the current generation a few symbols at a time, and
+			// stop as soon as the next generation is long enough.
+			while (charIndex < sourceLength
+					&& nextSymbols.length() < symbolCount) {
+				charIndex = grammar.rewrite(source, sourceLength, charIndex,
+						Math.min(charIndex + DERIVATION_STEP, sourceLength),
+						nextSymbols, randomGenerator);
+			}
+
+			// Keep track of the generations which do not grow, since the
+			// grammar may never reach the required length.
+			if (nextSymbols.length() <= sourceLength) {
+				if (++stalledGenerations == MAX_STALLED_GENERATIONS) {
+					reset();
+					throw new IllegalStateException(
+							"The derivation stopped growing at " + sourceLength
+									+ " symbols.");
+				}
+			} else {
+				stalledGenerations = 0;
+			}
+
+			swap();
+		}
+
+		// Append the symbols which are required, and revert back to the axiom.
+		result.append(currentSymbols.getSymbols(), 0, symbolCount);
+		reset();
+	}
+
+	/**
+	 * Derives the given generation from the axiom, and stores it as a
+	 * hash-consed graph, in which repeated substructures are shared.
+	 * 
+	 * @param generation
+	 *            the generation which will be derived. Generation 0 is the
+	 *            axiom.
+	 * @return the graph which holds the generation.
+	 * @see Grammar#deriveDag(int, Random)
+	 */
+	public DerivationDag deriveDag(int generation) {
+		return grammar.deriveDag(generation, randomGenerator);
+	}
+
+	/**
+	 * Reverts the current string back to the axiom.
+	 */
+	public void reset() {
+		// The axiom is not bound by the budget, which only limits the
+		// generations derived from it.
+		currentSymbols.setLimit(SymbolBuffer.MAX_CAPACITY);
+		currentSymbols.clear();
+		currentSymbols.append(grammar.getAxiom());
+		currentString = grammar.getAxiom();
+		generation = 0;
+	}
+
+	/**
+	 * Returns the current string.
+	 * 
+	 * @return the current string.
+	 */
+	public String getCurrentString() {
+		// Create the string from the current symbols, if this has not been
+		// done already.
+		if (currentString == null) {
+			currentString = currentSymbols.toString();
+		}
+
+		return currentString;
+	}
+
+	/**
+	 * Returns the buffer which holds the current symbols. The buffer is owned
+	 * by this derivation, and its contents are replaced by the next call to
+	 * {@link #advance()}, {@link #next()} or {@link #reset()}.
+	 * 
+	 * @return the buffer which holds the current symbols.
+	 */
+	public SymbolBuffer getCurrentSymbols() {
+		return currentSymbols;
+	}
+}
@@ -0,0 +1,596 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A derivation stored as a hash-consed directed acyclic graph, in which
+ * identical subtrees are only stored once.
+ * 
+ * The symbols of the derivation are split into leaves, and the leaves are
+ * grouped into internal nodes, level by level, until a single root remains.
+ * The boundaries between leaves, and between groups, are determined by the
+ * content itself rather than by position: a leaf ends wherever a rolling hash
+ * of the last few symbols hits a fixed pattern, and a group ends wherever the
+ * hash of a node hits a fixed pattern. Therefore a substructure which appears
+ * many times in a derivation, such as a run of Fs or a recurring successor, is
+ * split in the same way each time. Every node is then looked up in a table of
+ * existing nodes before it is created, so that identical nodes are shared.
+ * 
+ * Each node caches the number of symbols below it, so that any symbol can be
+ * found by descending from the root, and the derivation can be iterated
+ * sequentially, without ever flattening it into a single string.
+ * 
+ * @see Derivation#deriveDag(int)
+ */
+public class DerivationDag {
+	/**
+	 * The minimum number of symbols in a leaf.
+	 */
+	private static final int MIN_LEAF_LENGTH = 4;
+	/**
+	 * The maximum number of symbols in a leaf.
+	 */
+	private static final int MAX_LEAF_LENGTH = 64;
+	/**
+	 * A leaf ends when the rolling hash masked by this value is 0. This gives
+	 * an average of 16 symbols per leaf.
+	 */
+	private static final int LEAF_BOUNDARY_MASK = 0xf;
+	/**
+	 * The minimum number of children in an internal node.
+	 */
+	private static final int MIN_FAN_OUT = 2;
+	/**
+	 * The maximum number of children in an internal node.
+	 */
+	private static final int MAX_FAN_OUT = 32;
+	/**
+	 * A group of nodes ends when the hash of its last node masked by this
+	 * value is 0. This gives an average of 8 children per internal node.
+	 */
+	private static final int GROUP_BOUNDARY_MASK = 0x7;
+	/**
+	 * The random values used by the rolling hash, one for each symbol modulo
+	 * 256.
+	 */
+	private static final int[] GEAR = getGear();
+
+	/**
+	 * A node of the graph.
+	 */
+	private static final class Node {
+		/**
+		 * The symbols of this node, if it is a leaf, or null otherwise.
+		 */
+		public final char[] symbols;
+		/**
+		 * The children of this node, if it is an internal node, or null
+		 * otherwise.
+		 */
+		public final Node[] children;
+		/**
+		 * The position of each child within this node, if it is an internal
+		 * node.
+		 */
+		public final long[] childOffsets;
+		/**
+		 * The number of symbols below this node.
+		 */
+		public final long length;
+		/**
+		 * The hash of the content of this node.
+		 */
+		public final int hash;
+		/**
+		 * The number of nodes on the longest path from this node to a leaf,
+		 * including both.
+		 */
+		public final int height;
+
+		/**
+		 * Creates a leaf.
+		 * 
+		 * @param symbols
+		 *            the symbols of the leaf.
+		 */
+		public Node(char[] symbols) {
+			this.symbols = symbols;
+			this.children = null;
+			this.childOffsets = null;
+			this.length = symbols.length;
+			this.hash = Arrays.hashCode(symbols);
+			this.height = 1;
+		}
+
+		/**
+		 * Creates an internal node.
+		 * 
+		 * @param children
+		 *            the children of the node. These must already be shared
+		 *            nodes, so that two internal nodes are identical if and
+		 *            only if their children are the same objects.
+		 */
+		public Node(Node[] children) {
+			this.symbols = null;
+			this.children = children;
+			this.childOffsets = new long[children.length];
+
+			long offset = 0;
+			int childHash = 1;
+			int maxHeight = 0;
+
+			for (int childIndex = 0; childIndex < children.length; childIndex++) {
+				childOffsets[childIndex] = offset;
+				offset += children[childIndex].length;
+				childHash = 31 * childHash + children[childIndex].hash;
+				maxHeight = Math.max(maxHeight, children[childIndex].height);
+			}
+
+			this.length = offset;
+			this.hash = childHash;
+			this.height = maxHeight + 1;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Node)) {
+				return false;
+			}
+
+			Node otherNode = (Node) other;
+
+			if (hash != otherNode.hash || length != otherNode.length) {
+				return false;
+			}
+
+			if (symbols != null) {
+				return Arrays.equals(symbols, otherNode.symbols);
+			}
+
+			// The children are shared, so they can be compared by identity.
+			if (otherNode.children == null
+					|| children.length != otherNode.children.length) {
+				return false;
+			}
+
+			for (int childIndex = 0; childIndex < children.length; childIndex++) {
+				if (children[childIndex] != otherNode.children[childIndex]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * A cursor which iterates through the symbols of the graph in order.
+	 */
+	public class Cursor implements SymbolCursor {
+		/**
+		 * The nodes on the path from the root to the current leaf.
+		 */
+		private Node[] path;
+		/**
+		 * The index of the child being visited on each node in the path.
+		 */
+		private int[] childIndices;
+		/**
+		 * The number of nodes in the path.
+		 */
+		private int depth;
+		/**
+		 * The index of the next symbol in the current leaf.
+		 */
+		private int symbolIndex;
+
+		/**
+		 * Creates a cursor which starts at the first symbol.
+		 */
+		private Cursor() {
+			path = new Node[root.height];
+			childIndices = new int[path.length];
+			descend(root);
+		}
+
+		/**
+		 * Pushes the given node onto the path, followed by its first
+		 * descendants, until a leaf is reached.
+		 * 
+		 * @param node
+		 *            the node which will be pushed.
+		 */
+		private void descend(Node node) {
+			while (node.symbols == null) {
+				path[depth] = node;
+				childIndices[depth] = 0;
+				depth++;
+				node = node.children[0];
+			}
+
+			path[depth] = node;
+			depth++;
+			symbolIndex = 0;
+		}
+
+		/**
+		 * Returns true if there are more symbols in the graph.
+		 * 
+		 * @return true if there are more symbols in the graph.
+		 */
+		@Override
+		public boolean hasNext() {
+			// Move on to the next leaf, skipping any empty ones.
+			while (symbolIndex == path[depth - 1].symbols.length) {
+				// Pop the current leaf, along with any nodes whose children
+				// have all been visited.
+				depth--;
+
+				while (depth > 0
+						&& childIndices[depth - 1] == path[depth - 1].children.length - 1) {
+					depth--;
+				}
+
+				if (depth == 0) {
+					// Stay on the last leaf, so that further calls return
+					// false.
+					depth = 1;
+					path[0] = EMPTY_LEAF;
+					symbolIndex = 0;
+					return false;
+				}
+
+				descend(path[depth - 1].children[++childIndices[depth - 1]]);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns the next symbol in the graph.
+		 * 
+		 * @return the next symbol in the graph.
+		 * @throws IllegalStateException
+		 *             if there are no more symbols in the graph.
+		 */
+		@Override
+		public char next() {
+			if (!hasNext()) {
+				throw new IllegalStateException(
+						"There are no more symbols in this derivation.");
+			}
+
+			return path[depth - 1].symbols[symbolIndex++];
+		}
+	}
+
+	/**
+	 * A leaf with no symbols.
+	 */
+	private static final Node EMPTY_LEAF = new Node(new char[0]);
+
+	/**
+	 * The root of the graph.
+	 */
+	private Node root;
+	/**
+	 * The number of distinct nodes in the graph.
+	 */
+	private int nodeCount;
+
+	/**
+	 * Builds the graph for the symbols handed out by the given cursor. The
+	 * symbols are consumed one at a time, so the generation is never stored in
+	 * full, or is only read from where it is already stored, such as the
+	 * segments of a {@link SegmentedSymbols}.
+	 * 
+	 * @param symbols
+	 *            the cursor which hands out the symbols of the derivation.
+	 */
+	public DerivationDag(SymbolCursor symbols) {
+		Builder builder = new Builder();
+
+		while (symbols.hasNext()) {
+			builder.append(symbols.next());
+		}
+
+		builder.finish();
+	}
+
+	/**
+	 * Builds the graph for the given symbols.
+	 * 
+	 * @param symbols
+	 *            the symbols of the derivation.
+	 */
+	public DerivationDag(CharSequence symbols) {
+		Builder builder = new Builder();
+
+		for (int charIndex = 0; charIndex < symbols.length(); charIndex++) {
+			builder.append(symbols.charAt(charIndex));
+		}
+
+		builder.finish();
+	}
+
+	/**
+	 * Builds the graph as the symbols of the derivation are appended.
+	 */
+	private class Builder {
+		/**
+		 * The table of nodes created so far, used to share identical nodes.
+		 */
+		private HashMap<Node, Node> nodes = new HashMap<Node, Node>();
+		/**
+		 * The symbols of the leaf which is being filled.
+		 */
+		private char[] leaf = new char[MAX_LEAF_LENGTH];
+		/**
+		 * The number of symbols in the leaf which is being filled.
+		 */
+		private int leafLength;
+		/**
+		 * The rolling hash of the last symbols appended.
+		 */
+		private int rollingHash;
+		/**
+		 * The nodes of each level which have not been grouped yet. Level 0
+		 * holds leaves.
+		 */
+		private ArrayList<ArrayList<Node>> levels = new ArrayList<ArrayList<Node>>();
+
+		/**
+		 * Appends a symbol to the derivation.
+		 * 
+		 * @param symbol
+		 *            the symbol which will be appended.
+		 */
+		public void append(char symbol) {
+			leaf[leafLength++] = symbol;
+			rollingHash = (rollingHash << 1) + GEAR[symbol & 0xff];
+
+			// End the leaf if the content hits the boundary pattern, or if
+			// the leaf is full.
+			if ((leafLength >= MIN_LEAF_LENGTH && (rollingHash & LEAF_BOUNDARY_MASK) == 0)
+					|| leafLength == MAX_LEAF_LENGTH) {
+				endLeaf();
+			}
+		}
+
+		/**
+		 * Ends the leaf which is being filled, and adds it to the first level.
+		 */
+		private void endLeaf() {
+			if (leafLength > 0) {
+				add(0, share(new Node(Arrays.copyOf(leaf, leafLength))));
+				leafLength = 0;
+			}
+		}
+
+		/**
+		 * Adds a node to the given level, grouping the nodes of the level into
+		 * a new node whenever a boundary is reached.
+		 * 
+		 * @param level
+		 *            the level to which the node is added.
+		 * @param node
+		 *            the node which will be added.
+		 */
+		private void add(int level, Node node) {
+			if (level == levels.size()) {
+				levels.add(new ArrayList<Node>());
+			}
+
+			ArrayList<Node> group = levels.get(level);
+			group.add(node);
+
+			if ((group.size() >= MIN_FAN_OUT && (mix(node.hash) & GROUP_BOUNDARY_MASK) == 0)
+					|| group.size() == MAX_FAN_OUT) {
+				endGroup(level);
+			}
+		}
+
+		/**
+		 * Groups the nodes of the given level into a new node, and adds it to
+		 * the next level.
+		 * 
+		 * @param level
+		 *            the level whose nodes will be grouped.
+		 */
+		private void endGroup(int level) {
+			ArrayList<Node> group = levels.get(level);
+			Node node = share(new Node(group.toArray(new Node[group.size()])));
+			group.clear();
+			add(level + 1, node);
+		}
+
+		/**
+		 * Ends the derivation, and sets the root of the graph.
+		 */
+		public void finish() {
+			endLeaf();
+
+			// Group the remaining nodes of each level, from the bottom up,
+			// until a single node remains on the top level.
+			for (int level = 0; level < levels.size(); level++) {
+				ArrayList<Node> group = levels.get(level);
+				boolean isTop = level == levels.size() - 1;
+
+				if (isTop && group.size() <= 1) {
+					break;
+				}
+
+				if (group.size() == 1) {
+					// Move a single node up, instead of wrapping it.
+					Node node = group.remove(0);
+					add(level + 1, node);
+				} else if (group.size() > 1) {
+					endGroup(level);
+				}
+			}
+
+			ArrayList<Node> top = levels.isEmpty() ? null : levels.get(levels
+					.size() - 1);
+
+			if (top == null || top.isEmpty()) {
+				root = EMPTY_LEAF;
+			} else {
+				root = top.get(0);
+			}
+
+			nodeCount = nodes.size();
+		}
+
+		/**
+		 * Returns the shared node which is identical to the given one, or
+		 * stores the given node if no such node exists.
+		 * 
+		 * @param node
+		 *            the node which will be shared.
+		 * @return the shared node.
+		 */
+		private Node share(Node node) {
+			Node sharedNode = nodes.get(node);
+
+			if (sharedNode == null) {
+				nodes.put(node, node);
+				sharedNode = node;
+			}
+
+			return sharedNode;
+		}
+	}
+
+	/**
+	 * Returns the number of symbols in the derivation.
+	 * 
+	 * @return the number of symbols in the derivation.
+	 */
+	public long length() {
+		return root.length;
+	}
+
+	/**
+	 * Returns the number of distinct nodes stored in the graph.
+	 * 
+	 * @return the number of distinct nodes stored in the graph.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the symbol at the given position in the derivation.
+	 * 
+	 * @param index
+	 *            the position of the symbol.
+	 * @return the symbol at the given position.
+	 */
+	public char charAt(long index) {
+		if (index < 0 || index >= root.length) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Length: " + root.length);
+		}
+
+		Node node = root;
+
+		// Descend to the leaf which holds the symbol, finding the child at
+		// each level with a binary search on the offsets of the children.
+		while (node.symbols == null) {
+			int childIndex = Arrays.binarySearch(node.childOffsets, index);
+
+			// If the index falls inside a child, rather than at its start,
+			// the binary search returns the insertion point.
+			if (childIndex < 0) {
+				childIndex = -childIndex - 2;
+			}
+
+			index -= node.childOffsets[childIndex];
+			node = node.children[childIndex];
+		}
+
+		return node.symbols[(int) index];
+	}
+
+	/**
+	 * Returns a cursor which iterates through the symbols of the derivation, in
+	 * order.
+	 * 
+	 * @return a cursor over the symbols of the derivation.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Mixes the bits of the given hash, so that the boundaries between groups
+	 * do not depend on the low bits of the hash alone.
+	 * 
+	 * @param hash
+	 *            the hash which will be mixed.
+	 * @return the mixed hash.
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the random values used by the rolling hash. They are generated
+	 * from a fixed seed, so that the same content is always split in the same
+	 * way.
+	 * 
+	 * @return the random values used by the rolling hash.
+	 */
+	private static int[] getGear() {
+		int[] gear = new int[256];
+		int value = 0x2545f491;
+
+		for (int symbol = 0; symbol < gear.length; symbol++) {
+			value = mix(value + symbol);
+			gear[symbol] = value;
+		}
+
+		return gear;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+
+/**
+ * An immutable copy of a generation of a derivation, from which any number of
+ * independent derivations can be forked.
+ * 
+ * Taking a snapshot allows the generations which several derivations have in
+ * common to be derived only once. For example, the voices of a piece can all
+ * branch from the same early generation, instead of each one deriving it again
+ * from the axiom.
+ * 
+ * @see Derivation#snapshot()
+ */
+public class DerivationSnapshot {
+	/**
+	 * The grammar whose productions derived the generation.
+	 */
+	private final Grammar grammar;
+	/**
+	 * The symbols of the generation. The array is never modified, and is
+	 * exactly as long as the generation.
+	 */
+	private final char[] symbols;
+	/**
+	 * The number of times the axiom was rewritten to reach the generation.
+	 */
+	private final int generation;
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the grammar whose productions derived the generation.
+	 * @param symbols
+	 *            the array which holds the symbols of the generation. The
+	 *            symbols are copied.
+	 * @param length
+	 *            the number of symbols in the generation.
+	 * @param generation
+	 *            the number of times the axiom was rewritten to reach the
+	 *            generation.
+	 */
+	DerivationSnapshot(Grammar grammar, char[] symbols, int length,
+			int generation) {
+		this.grammar = grammar;
+		this.symbols = new char[length];
+		this.generation = generation;
+
+		System.arraycopy(symbols, 0, this.symbols, 0, length);
+	}
+
+	/**
+	 * Returns the grammar whose productions derived the generation.
+	 * 
+	 * @return the grammar whose productions derived the generation.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Returns the number of times the axiom was rewritten to reach the
+	 * generation.
+	 * 
+	 * @return the number of times the axiom was rewritten to reach the
+	 *         generation.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the number of symbols in the generation.
+	 * 
+	 * @return the number of symbols in the generation.
+	 */
+	public int length() {
+		return symbols.length;
+	}
+
+	/**
+	 * Copies the symbols of the generation into the given buffer, replacing
+	 * its contents.
+	 * 
+	 * @param result
+	 *            the buffer which will hold the symbols.
+	 */
+	void copyTo(SymbolBuffer result) {
+		result.clear();
+		result.append(symbols, 0, symbols.length);
+	}
+
+	/**
+	 * Starts a new derivation from this generation, which uses the given
+	 * random number generator.
+	 * 
+	 * @param randomGenerator
+	 *            the random number generator used by the derivation.
+	 * @return the new derivation.
+	 */
+	public Derivation fork(Random randomGenerator) {
+		Derivation derivation = new Derivation(grammar, randomGenerator);
+		derivation.restore(this);
+
+		return derivation;
+	}
+
+	@Override
+	public String toString() {
+		return new String(symbols);
+	}
+}
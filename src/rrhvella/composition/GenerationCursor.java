@@ -0,0 +1,241 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+
+/**
+ * A cursor which streams the symbols of a single generation of an L-system,
+ * without building that generation, or any of the generations before it.
+ * 
+ * The cursor is made of a pipeline of stages, one for each generation. The
+ * first stage produces the symbols of the axiom. Every other stage pulls just
+ * enough symbols from the stage before it to fit the longest context of the
+ * grammar, selects a production for the first of them, and hands out the
+ * successor one symbol at a time. Therefore, the memory used by the cursor is
+ * proportional to the number of generations, rather than to the length of the
+ * generation.
+ * 
+ * The productions are selected exactly as they would be by
+ * {@link Grammar#process(String, Random)}, so the symbols streamed have the
+ * same distribution as the generation built by advancing a derivation. Each
+ * stage has its own selector, which sees the symbols of its generation in
+ * order, so a grammar which only allows some productions, depending on the
+ * symbols written before them, applies the same restriction to the stream.
+ * The one exception is a generation with no valid descendant, which a
+ * derivation keeps unchanged. A stage has already handed out part of its
+ * generation by the time it finds this out, so it copies the symbol which
+ * could not be rewritten instead, and carries on.
+ * 
+ * @see Grammar#stream(int, Random)
+ */
+public class GenerationCursor implements SymbolCursor {
+	/**
+	 * A stage in the pipeline, which produces the symbols of one generation.
+	 */
+	private class Stage {
+		/**
+		 * The stage which produces the previous generation, or null if this
+		 * stage produces the axiom.
+		 */
+		private Stage source;
+		/**
+		 * The symbols pulled from the previous generation, which have not been
+		 * rewritten yet.
+		 */
+		private char[] window;
+		/**
+		 * The number of symbols in the window.
+		 */
+		private int windowLength;
+		/**
+		 * The symbols which have been produced, but not yet handed out.
+		 */
+		private SymbolBuffer pending;
+		/**
+		 * The index of the next symbol to hand out from the pending symbols.
+		 */
+		private int pendingIndex;
+		/**
+		 * The selector which selects the productions applied by this stage,
+		 * or null if this stage produces the axiom.
+		 */
+		private ProductionSelector selector;
+
+		/**
+		 * Creates the stage which produces the axiom.
+		 * 
+		 * @param axiom
+		 *            the axiom of the grammar.
+		 */
+		public Stage(String axiom) {
+			pending = new SymbolBuffer(axiom);
+		}
+
+		/**
+		 * Creates a stage which rewrites the generation produced by the given
+		 * stage.
+		 * 
+		 * @param source
+		 *            the stage which produces the previous generation.
+		 */
+		public Stage(Stage source) {
+			this.source = source;
+			this.window = new char[Math.max(grammar.getMaxContextLength(), 1)];
+			this.pending = new SymbolBuffer();
+			this.selector = grammar.newSelector();
+		}
+
+		/**
+		 * Returns true if this stage has more symbols to hand out.
+		 * 
+		 * @return true if this stage has more symbols to hand out.
+		 */
+		public boolean hasNext() {
+			// Keep rewriting the previous generation until a symbol is
+			// produced, since a successor may be empty.
+			while (pendingIndex == pending.length()) {
+				if (!rewrite()) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns the next symbol produced by this stage. This should only be
+		 * called if {@link #hasNext()} returns true.
+		 * 
+		 * @return the next symbol produced by this stage.
+		 */
+		public char next() {
+			return pending.getSymbols()[pendingIndex++];
+		}
+
+		/**
+		 * Rewrites the next symbol of the previous generation, and stores the
+		 * result in the pending symbols.
+		 * 
+		 * @return false if the previous generation has been exhausted.
+		 */
+		private boolean rewrite() {
+			// The axiom cannot be rewritten any further.
+			if (source == null) {
+				return false;
+			}
+
+			// Pull enough symbols from the previous generation to fill the
+			// longest context.
+			while (windowLength < window.length && source.hasNext()) {
+				window[windowLength++] = source.next();
+			}
+
+			if (windowLength == 0) {
+				return false;
+			}
+
+			// Rewrite the first symbol in the window, and remove the symbols
+			// which were consumed.
+			pending.clear();
+			pendingIndex = 0;
+
+			int consumed = grammar.rewrite(window, windowLength, 0, 1, pending,
+					randomGenerator, selector);
+
+			windowLength -= consumed;
+			System.arraycopy(window, consumed, window, 0, windowLength);
+
+			return true;
+		}
+	}
+
+	/**
+	 * The grammar whose productions are applied.
+	 */
+	private Grammar grammar;
+	/**
+	 * The random number generator used to select the productions.
+	 */
+	private Random randomGenerator;
+	/**
+	 * The stage which produces the generation streamed by this cursor.
+	 */
+	private Stage output;
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the grammar whose productions are applied.
+	 * @param generation
+	 *            the generation which will be streamed. Generation 0 is the
+	 *            axiom.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 */
+	GenerationCursor(Grammar grammar, int generation, Random randomGenerator) {
+		this.grammar = grammar;
+		this.randomGenerator = randomGenerator;
+
+		// Build the pipeline, starting from the axiom.
+		output = new Stage(grammar.getAxiom());
+
+		for (int generationIndex = 0; generationIndex < generation; generationIndex++) {
+			output = new Stage(output);
+		}
+	}
+
+	/**
+	 * Returns true if there are more symbols in the generation.
+	 * 
+	 * @return true if there are more symbols in the generation.
+	 */
+	@Override
+	public boolean hasNext() {
+		return output.hasNext();
+	}
+
+	/**
+	 * Returns the next symbol in the generation.
+	 * 
+	 * @return the next symbol in the generation.
+	 * @throws IllegalStateException
+	 *             if there are no more symbols in the generation.
+	 */
+	@Override
+	public char next() {
+		if (!output.hasNext()) {
+			throw new IllegalStateException(
+					"There are no more symbols in this generation.");
+		}
+
+		return output.next();
+	}
+}
@@ -0,0 +1,950 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The grammar of a context-sensitive stochastic L-system: its axiom, its
+ * productions and the value of its 'change entire context' flag.
+ * 
+ * A grammar is immutable, and does not hold any of the state of a derivation.
+ * The random number generator used to select the productions is always passed
+ * in by the caller. Therefore a single grammar can be built once, and shared
+ * by any number of threads, each of which runs its own derivations through a
+ * lightweight {@link Derivation}.
+ * 
+ * @see Derivation
+ */
+public class Grammar {
+	/**
+	 * The number of source symbols rewritten by each task when a generation is
+	 * processed in parallel.
+	 * 
+	 * @see Grammar#processParallel(char[], int,
+	 *      SymbolBuffer, long, ForkJoinPool)
+	 */
+	private static final int PARALLEL_CHUNK_LENGTH = 1 << 14;
+	/**
+	 * The number of positions at the start of a chunk, for which the result of
+	 * the speculative rewrite is recorded. If a chunk has to be rewritten
+	 * again, because the previous chunk did not end where it was assumed to,
+	 * the new rewrite joins the speculative one at the first position within
+	 * this window which both of them reached.
+	 */
+	private static final int CONVERGENCE_WINDOW = 256;
+
+	/**
+	 * The axiom for this grammar.
+	 */
+	private final String axiom;
+	/**
+	 * The trie over the contexts of the predecessors for the productions of
+	 * this grammar.
+	 */
+	private final PredecessorTrie predecessors;
+	/**
+	 * The matcher which finds the node of the trie holding the valid
+	 * productions. This is the trie itself, unless the productions have been
+	 * compiled.
+	 * 
+	 * @see Grammar#compile()
+	 */
+	private final ContextMatcher matcher;
+	/**
+	 * The value of the flag, 'change entire context'.
+	 * 
+	 * @see Grammar#Grammar(String, HashMap, boolean)
+	 */
+	private final boolean changeEntireContext;
+	/**
+	 * The smallest number of symbols which any production, or a symbol which
+	 * no production matches, writes for each symbol it consumes.
+	 * 
+	 * @see Grammar#getMinimumResultLength(long)
+	 */
+	private final double minimumGrowth;
+	/**
+	 * The selector used by the rewrites which do not need one of their own.
+	 * It has no state, so it is shared by all of them.
+	 * 
+	 * @see Grammar#newSelector()
+	 */
+	private final ProductionSelector defaultSelector;
+
+	/**
+	 * 
+	 * @param axiom
+	 *            the axiom for this grammar.
+	 * @param productions
+	 *            the productions for this grammar as a dictionary which maps a
+	 *            predecessor to its successor.
+	 * @see ContextSensitiveNonDeterministicPredecessor
+	 */
+	public Grammar(
+			String axiom,
+			HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions) {
+		this(axiom, productions, false);
+	}
+
+	/**
+	 * 
+	 * @param axiom
+	 *            the axiom for this grammar.
+	 * @param productions
+	 *            the productions for this grammar, as a dictionary which maps a
+	 *            predecessor to its successor. The dictionary is compiled when
+	 *            the grammar is created, so later changes to it have no effect.
+	 * @param changeEntireContext
+	 *            if true, then, at each iteration, this system will replace the
+	 *            predecessor, along with its entire context, with the
+	 *            successor. Otherwise, if this parameter is false, this system
+	 *            will only replace the predecessor.
+	 */
+	public Grammar(
+			String axiom,
+			HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions,
+			boolean changeEntireContext) {
+		this.axiom = axiom;
+		this.changeEntireContext = changeEntireContext;
+
+		// Compile the productions into a trie, so that the predecessors can be
+		// looked up by their context.
+		this.predecessors = new PredecessorTrie(productions);
+		this.matcher = predecessors;
+		this.defaultSelector = new ProductionSelector(predecessors);
+
+		// Find the production which grows the string the least. A symbol
+		// which no production matches is copied, so the growth is never more
+		// than one.
+		double minimumGrowth = 1.0;
+
+		for (ContextSensitiveNonDeterministicPredecessor predecessor : productions
+				.keySet()) {
+			String successor = productions.get(predecessor);
+			double growth;
+
+			if (changeEntireContext) {
+				growth = (double) successor.length()
+						/ predecessor.getContextLength();
+			} else {
+				growth = predecessor.getPrecedingContext().length()
+						+ successor.length()
+						+ predecessor.getProceedingContext().length();
+			}
+
+			minimumGrowth = Math.min(minimumGrowth, growth);
+		}
+
+		this.minimumGrowth = minimumGrowth;
+	}
+
+	/**
+	 * Creates a grammar from a trie which has already been compiled, for
+	 * example one which has been read from a file.
+	 * 
+	 * @param axiom
+	 *            the axiom for this grammar.
+	 * @param changeEntireContext
+	 *            the value of the flag, 'change entire context'.
+	 * @param predecessors
+	 *            the trie over the contexts of the predecessors.
+	 * @param minimumGrowth
+	 *            the smallest number of symbols which any production writes
+	 *            for each symbol it consumes.
+	 * @see GrammarFile
+	 */
+	Grammar(String axiom, boolean changeEntireContext,
+			PredecessorTrie predecessors, double minimumGrowth) {
+		this.axiom = axiom;
+		this.changeEntireContext = changeEntireContext;
+		this.predecessors = predecessors;
+		this.matcher = predecessors;
+		this.minimumGrowth = minimumGrowth;
+		this.defaultSelector = new ProductionSelector(predecessors);
+	}
+
+	/**
+	 * Creates a copy of the given grammar, which matches contexts with the
+	 * given matcher.
+	 * 
+	 * @param grammar
+	 *            the grammar which will be copied.
+	 * @param matcher
+	 *            the matcher used by the copy.
+	 */
+	protected Grammar(Grammar grammar, ContextMatcher matcher) {
+		this.axiom = grammar.axiom;
+		this.changeEntireContext = grammar.changeEntireContext;
+		this.predecessors = grammar.predecessors;
+		this.minimumGrowth = grammar.minimumGrowth;
+		this.matcher = matcher;
+		this.defaultSelector = grammar.defaultSelector;
+	}
+
+	/**
+	 * Returns a copy of this grammar which matches the contexts of its
+	 * productions with a compiled tree of method handles, rather than with its
+	 * trie.
+	 * 
+	 * This is worthwhile for grammars which are used to rewrite long strings,
+	 * since compiling them takes a noticeable amount of time. If the trie is
+	 * too large to be compiled, this grammar is returned instead.
+	 * 
+	 * @return the compiled grammar, or this grammar if it cannot be compiled.
+	 * @see MatcherCompiler
+	 */
+	public Grammar compile() {
+		ContextMatcher compiledMatcher = MatcherCompiler.compile(predecessors);
+
+		if (compiledMatcher == null) {
+			return this;
+		}
+
+		return copy(compiledMatcher);
+	}
+
+	/**
+	 * Returns a copy of this grammar which matches contexts with the given
+	 * matcher. Subclasses which add behaviour to a grammar should override
+	 * this method, so that the behaviour is kept by compiled copies.
+	 * 
+	 * @param matcher
+	 *            the matcher used by the copy.
+	 * @return the copy of this grammar.
+	 */
+	protected Grammar copy(ContextMatcher matcher) {
+		return new Grammar(this, matcher);
+	}
+
+	/**
+	 * Returns the axiom for this grammar.
+	 * 
+	 * @return the axiom for this grammar.
+	 */
+	public String getAxiom() {
+		return axiom;
+	}
+
+	/**
+	 * Returns the value of the flag, 'change entire context'.
+	 * 
+	 * @return the value of the flag, 'change entire context'.
+	 * @see Grammar#Grammar(String, HashMap, boolean)
+	 */
+	public boolean isChangeEntireContext() {
+		return changeEntireContext;
+	}
+
+	/**
+	 * Returns the trie over the contexts of the predecessors of this grammar.
+	 * 
+	 * @return the trie over the contexts of the predecessors of this grammar.
+	 */
+	PredecessorTrie getPredecessorTrie() {
+		return predecessors;
+	}
+
+	/**
+	 * Returns the matcher which finds the node of the trie that holds the
+	 * valid productions at each position.
+	 * 
+	 * @return the matcher used by this grammar.
+	 */
+	ContextMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Returns a new selector, which selects the productions applied while a
+	 * string is rewritten in order. Subclasses which only allow some of the
+	 * candidates at each position, depending on the symbols written before
+	 * it, should override this method, so that the same productions are
+	 * selected by {@link #process(char[], int, SymbolBuffer, Random)} and by
+	 * a {@link GenerationCursor}.
+	 * 
+	 * @return the selector for a new rewrite.
+	 */
+	ProductionSelector newSelector() {
+		return defaultSelector;
+	}
+
+	/**
+	 * Returns the smallest number of symbols which any production of this
+	 * grammar writes for each symbol it consumes.
+	 * 
+	 * @return the smallest number of symbols written for each symbol
+	 *         consumed.
+	 */
+	double getMinimumGrowth() {
+		return minimumGrowth;
+	}
+
+	/**
+	 * Returns the length of the longest context in this grammar.
+	 * 
+	 * @return the length of the longest context in this grammar.
+	 */
+	public int getMaxContextLength() {
+		return predecessors.getMaxContextLength();
+	}
+
+	/**
+	 * Returns the smallest number of symbols which rewriting a string of the
+	 * given length can produce. This allows a derivation to find out that the
+	 * next generation will not fit in its budget, before it is rewritten.
+	 * 
+	 * @param sourceLength
+	 *            the number of symbols which will be rewritten.
+	 * @return the smallest number of symbols which the rewrite can produce.
+	 */
+	public long getMinimumResultLength(long sourceLength) {
+		return (long) Math.floor(sourceLength * minimumGrowth);
+	}
+
+	/**
+	 * Starts a new derivation from the axiom of this grammar, with its own
+	 * random number generator.
+	 * 
+	 * @return the new derivation.
+	 */
+	public Derivation newDerivation() {
+		return new Derivation(this, new Random());
+	}
+
+	/**
+	 * Starts a new derivation from the axiom of this grammar, which uses the
+	 * given random number generator.
+	 * 
+	 * @param randomGenerator
+	 *            the random number generator used by the derivation.
+	 * @return the new derivation.
+	 */
+	public Derivation newDerivation(Random randomGenerator) {
+		return new Derivation(this, randomGenerator);
+	}
+
+	/**
+	 * Process the given string according to the rewriting the rules of this
+	 * grammar and return the result.
+	 * 
+	 * @param source
+	 *            the string which will be rewritten.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 * @return the result of the rewriting process.
+	 */
+	public String process(String source, Random randomGenerator) {
+		// Copy the string into a buffer, and rewrite it into another one.
+		SymbolBuffer sourceSymbols = new SymbolBuffer(source);
+		SymbolBuffer result = new SymbolBuffer(source.length());
+
+		process(sourceSymbols.getSymbols(), sourceSymbols.length(), result,
+				randomGenerator);
+
+		return result.toString();
+	}
+
+	/**
+	 * Process the given symbols according to the rewriting rules of this
+	 * grammar, and write the result into the given buffer.
+	 * 
+	 * The symbols are rewritten in a single pass. The successors, along with
+	 * their contexts, are copied into the result in bulk, and no memory is
+	 * allocated unless the result buffer has to grow. If the selector of the
+	 * rewrite finds that the symbols have no valid descendant, the original
+	 * symbols are written instead.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols which will be rewritten.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param result
+	 *            the buffer which will hold the result of the rewriting
+	 *            process. Any symbols already in the buffer are removed.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 * @throws SymbolBudgetExceededException
+	 *             if the result is longer than the limit of the buffer. The
+	 *             buffer then holds the symbols which fit.
+	 */
+	protected void process(char[] source, int sourceLength,
+			SymbolBuffer result, Random randomGenerator) {
+		ProductionSelector selector = newSelector();
+
+		result.clear();
+		rewrite(source, sourceLength, 0, sourceLength, result,
+				randomGenerator, selector);
+
+		// If no valid descendant exists, return the original symbols.
+		if (!selector.isValid()) {
+			result.clear();
+			result.append(source, 0, sourceLength);
+		}
+	}
+
+	/**
+	 * Rewrites the symbols starting from the given position, until the end
+	 * position is reached or passed, and appends the result to the given
+	 * buffer.
+	 * 
+	 * If the 'change entire context' flag is true, the context of the last
+	 * production applied may extend beyond the end position. In that case, the
+	 * position returned is past the end position, and the rewrite of the
+	 * following symbols has to start from there.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols which will be rewritten.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param start
+	 *            the position of the first symbol which will be rewritten.
+	 * @param end
+	 *            the position at which the rewriting stops.
+	 * @param result
+	 *            the buffer to which the result will be appended.
+	 * @param random
+	 *            the random number generator used to select the productions.
+	 *            If this is a {@link PositionalRandom}, it is moved to the
+	 *            position of each production before it is selected.
+	 * @return the position of the first symbol which was not rewritten.
+	 */
+	int rewrite(char[] source, int sourceLength, int start, int end,
+			SymbolBuffer result, Random random) {
+		return rewrite(source, sourceLength, start, end, result, random,
+				defaultSelector);
+	}
+
+	/**
+	 * Rewrites the symbols starting from the given position, until the end
+	 * position is reached or passed, and appends the result to the given
+	 * buffer. The productions are selected by the given selector, which is
+	 * told about every symbol written.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols which will be rewritten.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param start
+	 *            the position of the first symbol which will be rewritten.
+	 * @param end
+	 *            the position at which the rewriting stops.
+	 * @param result
+	 *            the buffer to which the result will be appended.
+	 * @param random
+	 *            the random number generator used to select the productions.
+	 * @param selector
+	 *            the selector which selects the productions. A rewrite which
+	 *            continues a previous one should be given the same selector.
+	 * @return the position of the first symbol which was not rewritten.
+	 * @see Grammar#rewrite(char[], int, int, int, SymbolBuffer, Random)
+	 */
+	int rewrite(char[] source, int sourceLength, int start, int end,
+			SymbolBuffer result, Random random, ProductionSelector selector) {
+		// The generator which has to be moved to each position, if any.
+		PositionalRandom positionalRandom = null;
+
+		if (random instanceof PositionalRandom) {
+			positionalRandom = (PositionalRandom) random;
+		}
+
+		// The nodes matched at each position of the current block, if the
+		// trie is matched a block at a time. Short rewrites, and grammars
+		// with a compiled matcher, match one position at a time instead.
+		PredecessorTrie.BlockMatcher blockMatcher = null;
+		int blockStart = start;
+		int blockEnd = start;
+
+		if (matcher == predecessors
+				&& end - start >= PredecessorTrie.BLOCK_LENGTH) {
+			blockMatcher = predecessors.newBlockMatcher();
+		}
+
+		int charIndex;
+
+		// For each character in the source string.
+		for (charIndex = start; charIndex < end; charIndex++) {
+			/*
+			 * Algorithm description:
+			 * 
+			 * Find the vector of valid productions R. A production is valid if
+			 * and only if it fits the context starting from the current
+			 * character. Since the predecessors are stored in a trie, R is the
+			 * set of candidates of the deepest node which is reached by walking
+			 * the source string from the current character. When the trie is
+			 * matched in blocks, this node has already been found for every
+			 * position of the block.
+			 * 
+			 * Select one of the productions in R, where the probability of
+			 * selecting R(k) is the probability of R(k) divided by the sum of
+			 * the probabilities in R. This is done by the selector of the
+			 * rewrite, with the alias table which was built for the node when
+			 * the grammar was compiled. The selector of a subclass may only
+			 * select from the productions in R which are valid, given the
+			 * symbols written so far.
+			 * 
+			 * Replace the context starting from the current character with the
+			 * successor of R(k). If the 'change entire context' flag is false,
+			 * then only replace the predecessor.
+			 */
+
+			// Find the node which holds the valid productions.
+			int node;
+
+			if (blockMatcher != null) {
+				// Match the next block once the position has left the
+				// current one.
+				if (charIndex >= blockEnd) {
+					blockMatcher.match(source, sourceLength, charIndex);
+					blockStart = charIndex;
+					blockEnd = charIndex + PredecessorTrie.BLOCK_LENGTH;
+				}
+
+				node = blockMatcher.getNode(charIndex - blockStart);
+			} else {
+				node = matcher.match(source, sourceLength, charIndex);
+			}
+
+			// Randomly select one of the rules.
+			int candidateIndex = ProductionSelector.NO_CANDIDATE;
+
+			if (node != PredecessorTrie.NO_NODE) {
+				if (positionalRandom != null) {
+					positionalRandom.setPosition(charIndex);
+				}
+
+				candidateIndex = selector.select(node, random);
+			}
+
+			// If no predecessor is valid, or none can be selected, add the
+			// same character to the resultant string and continue to the next
+			// loop iteration.
+			if (candidateIndex == ProductionSelector.NO_CANDIDATE) {
+				result.append(source[charIndex]);
+				selector.copied(source[charIndex]);
+				continue;
+			}
+
+			ContextSensitiveNonDeterministicPredecessor predecessor = predecessors
+					.getCandidate(candidateIndex);
+
+			// If the 'change entire context' flag is false, then append the
+			// preceding context for this production.
+			if (!changeEntireContext) {
+				result.append(predecessors
+						.getCandidatePrecedingContext(candidateIndex));
+			}
+
+			// Append the successor of the production.
+			result.append(predecessors.getCandidateSuccessor(candidateIndex));
+
+			// If the 'change entire context' flag is false, then append the
+			// proceeding context for this production.
+			if (!changeEntireContext) {
+				result.append(predecessors
+						.getCandidateProceedingContext(candidateIndex));
+			}
+
+			// If the 'change entire context' flag is true, then the context in
+			// the source string should be skipped, as it will be completely
+			// replaced.
+			if (changeEntireContext) {
+				charIndex += predecessor.getContextLength() - 1;
+			}
+
+			selector.applied(candidateIndex);
+		}
+
+		return charIndex;
+	}
+
+	/**
+	 * A section of the source string which is rewritten by a single task, when
+	 * a generation is processed in parallel.
+	 */
+	private class Chunk extends RecursiveAction {
+		/**
+		 * The serial version UID of this class.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The array which holds the source symbols.
+		 */
+		private char[] source;
+		/**
+		 * The number of symbols in the source array.
+		 */
+		private int sourceLength;
+		/**
+		 * The position of the first symbol in this chunk.
+		 */
+		public int start;
+		/**
+		 * The position after the last symbol in this chunk.
+		 */
+		public int end;
+		/**
+		 * The result of rewriting this chunk.
+		 */
+		public SymbolBuffer result;
+		/**
+		 * The position at which the rewriting of this chunk stopped. This is
+		 * past the end of the chunk if the context of the last production
+		 * extends into the next chunk.
+		 */
+		public int exit;
+		/**
+		 * The random number generator of this chunk.
+		 */
+		private PositionalRandom random;
+		/**
+		 * The length of the result when the rewrite reached each position at
+		 * the start of this chunk, or -1 if the position was skipped as part
+		 * of a context.
+		 */
+		private int[] resultLengths;
+
+		/**
+		 * 
+		 * @param source
+		 *            the array which holds the source symbols.
+		 * @param sourceLength
+		 *            the number of symbols in the source array.
+		 * @param start
+		 *            the position of the first symbol in this chunk.
+		 * @param end
+		 *            the position after the last symbol in this chunk.
+		 * @param seed
+		 *            the seed of the random number generator.
+		 */
+		public Chunk(char[] source, int sourceLength, int start, int end,
+				long seed) {
+			this.source = source;
+			this.sourceLength = sourceLength;
+			this.start = start;
+			this.end = end;
+			this.random = new PositionalRandom(seed);
+		}
+
+		/**
+		 * Rewrites this chunk, assuming that the previous chunk ends exactly
+		 * where this one starts.
+		 */
+		@Override
+		protected void compute() {
+			result = new SymbolBuffer(end - start);
+			resultLengths = new int[Math.min(CONVERGENCE_WINDOW, end - start)];
+
+			// Rewrite the symbols at the start of the chunk one production
+			// at a time, recording the length of the result at each position
+			// reached.
+			int charIndex = start;
+
+			for (int windowIndex = 0; windowIndex < resultLengths.length; windowIndex++) {
+				if (start + windowIndex == charIndex) {
+					resultLengths[windowIndex] = result.length();
+					charIndex = rewrite(source, sourceLength, charIndex,
+							charIndex + 1, result, random);
+				} else {
+					resultLengths[windowIndex] = -1;
+				}
+			}
+
+			// Rewrite the rest of the chunk.
+			exit = rewrite(source, sourceLength, charIndex, end, result, random);
+		}
+
+		/**
+		 * Rewrites this chunk again, starting from the given position, since
+		 * the previous chunk ended there instead of at the start of this one.
+		 * 
+		 * Since the production selected at each position only depends on the
+		 * seed and the position, the new rewrite is identical to the previous
+		 * one from the first position which both of them reach. The previous
+		 * result is therefore reused from that point onwards.
+		 * 
+		 * @param entry
+		 *            the position from which the rewriting starts.
+		 */
+		public void realign(int entry) {
+			SymbolBuffer newResult = new SymbolBuffer(end - start);
+			int charIndex = entry;
+
+			while (charIndex < end) {
+				int windowIndex = charIndex - start;
+
+				// If the previous rewrite reached this position as well, copy
+				// the rest of its result.
+				if (windowIndex < resultLengths.length
+						&& resultLengths[windowIndex] >= 0) {
+					newResult.append(result.getSymbols(),
+							resultLengths[windowIndex], result.length()
+									- resultLengths[windowIndex]);
+					result = newResult;
+					return;
+				}
+
+				// If the window has been passed without meeting the previous
+				// rewrite, rewrite the rest of the chunk.
+				if (windowIndex >= resultLengths.length) {
+					exit = rewrite(source, sourceLength, charIndex, end,
+							newResult, random);
+					result = newResult;
+					return;
+				}
+
+				charIndex = rewrite(source, sourceLength, charIndex,
+						charIndex + 1, newResult, random);
+			}
+
+			exit = charIndex;
+			result = newResult;
+		}
+	}
+
+	/**
+	 * Copies the result of a chunk into the result of the whole generation.
+	 */
+	private static class ChunkCopy extends RecursiveAction {
+		/**
+		 * The serial version UID of this class.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The symbols which will be copied.
+		 */
+		private SymbolBuffer source;
+		/**
+		 * The array into which the symbols will be copied.
+		 */
+		private char[] destination;
+		/**
+		 * The position in the destination array of the first symbol.
+		 */
+		private int offset;
+		/**
+		 * The number of symbols which will be copied.
+		 */
+		private int count;
+
+		/**
+		 * 
+		 * @param source
+		 *            the symbols which will be copied.
+		 * @param destination
+		 *            the array into which the symbols will be copied.
+		 * @param offset
+		 *            the position in the destination array of the first
+		 *            symbol.
+		 * @param count
+		 *            the number of symbols which will be copied.
+		 */
+		public ChunkCopy(SymbolBuffer source, char[] destination, int offset,
+				int count) {
+			this.source = source;
+			this.destination = destination;
+			this.offset = offset;
+			this.count = count;
+		}
+
+		@Override
+		protected void compute() {
+			System.arraycopy(source.getSymbols(), 0, destination, offset, count);
+		}
+	}
+
+	/**
+	 * Process the given string in parallel, according to the rewriting rules
+	 * of this grammar, and return the result.
+	 * 
+	 * @param source
+	 *            the string which will be rewritten.
+	 * @param seed
+	 *            the seed which determines the productions selected.
+	 * @return the result of the rewriting process.
+	 * @see Grammar#processParallel(char[], int,
+	 *      SymbolBuffer, long, ForkJoinPool)
+	 */
+	public String processParallel(String source, long seed) {
+		SymbolBuffer sourceSymbols = new SymbolBuffer(source);
+		SymbolBuffer result = new SymbolBuffer(source.length());
+
+		processParallel(sourceSymbols.getSymbols(), sourceSymbols.length(),
+				result, seed, ForkJoinPool.commonPool());
+
+		return result.toString();
+	}
+
+	/**
+	 * Process the given symbols in parallel, according to the rewriting rules
+	 * of this grammar, and write the result into the given buffer.
+	 * 
+	 * The source is split into chunks of a fixed length, which are rewritten
+	 * by separate tasks. Each chunk has its own random number generator, whose
+	 * output only depends on the seed and the position of the symbol being
+	 * rewritten. Therefore, the result only depends on the seed, and not on
+	 * the number of threads in the pool.
+	 * 
+	 * Each chunk is rewritten on the assumption that the previous one ends at
+	 * its first symbol. If the 'change entire context' flag is true, a context
+	 * may cross into the next chunk. Once all the chunks have been rewritten,
+	 * they are visited in order, and any chunk whose assumed start turns out to
+	 * be wrong is realigned. Finally, the position of each chunk in the result
+	 * is found with a prefix sum, and the chunks are copied in parallel.
+	 * 
+	 * If the result is longer than the limit of the buffer, the buffer is
+	 * filled with the symbols which fit, and an exception is thrown.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols which will be rewritten.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param result
+	 *            the buffer which will hold the result of the rewriting
+	 *            process. Any symbols already in the buffer are removed.
+	 * @param seed
+	 *            the seed which determines the productions selected.
+	 * @param pool
+	 *            the pool which runs the tasks.
+	 * @throws SymbolBudgetExceededException
+	 *             if the result is longer than the limit of the buffer.
+	 */
+	protected void processParallel(char[] source, int sourceLength,
+			SymbolBuffer result, long seed, ForkJoinPool pool) {
+		// Split the source into chunks.
+		final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+		for (int start = 0; start < sourceLength; start += PARALLEL_CHUNK_LENGTH) {
+			chunks.add(new Chunk(source, sourceLength, start, Math.min(start
+					+ PARALLEL_CHUNK_LENGTH, sourceLength), seed));
+		}
+
+		// Rewrite the chunks in parallel.
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(chunks);
+			}
+		});
+
+		// Realign the chunks which do not start where the previous chunk
+		// ended, and calculate the position of each chunk in the result.
+		final ArrayList<ChunkCopy> copies = new ArrayList<ChunkCopy>();
+		int entry = 0;
+		long resultLength = 0;
+
+		for (Chunk chunk : chunks) {
+			if (entry != chunk.start) {
+				chunk.realign(entry);
+			}
+
+			entry = chunk.exit;
+			resultLength += chunk.result.length();
+		}
+
+		// If the result does not fit in the buffer, only the symbols which fit
+		// are copied, and the buffer is reported as full once they have been.
+		int copiedLength = (int) Math.min(resultLength, result.getLimit());
+
+		result.clear();
+		result.setLength(copiedLength);
+
+		int offset = 0;
+
+		for (Chunk chunk : chunks) {
+			int count = Math.min(chunk.result.length(), copiedLength - offset);
+
+			if (count <= 0) {
+				break;
+			}
+
+			copies.add(new ChunkCopy(chunk.result, result.getSymbols(), offset,
+					count));
+			offset += count;
+		}
+
+		// Copy the chunks into the result in parallel.
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(copies);
+			}
+		});
+
+		if (resultLength > copiedLength) {
+			throw new SymbolBudgetExceededException(result.getLimit(),
+					resultLength);
+		}
+	}
+
+	/**
+	 * Returns a cursor which streams the symbols of the given generation,
+	 * derived from the axiom, without building any of the generations.
+	 * 
+	 * @param generation
+	 *            the generation which will be streamed. Generation 0 is the
+	 *            axiom.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 * @return a cursor over the symbols of the given generation.
+	 * @see GenerationCursor
+	 */
+	public GenerationCursor stream(int generation, Random randomGenerator) {
+		return new GenerationCursor(this, generation, randomGenerator);
+	}
+
+	/**
+	 * Derives the given generation from the axiom, and stores it as a
+	 * hash-consed graph, in which repeated substructures are shared. The
+	 * generation is streamed into the graph, so it is never stored in full.
+	 * 
+	 * @param generation
+	 *            the generation which will be derived. Generation 0 is the
+	 *            axiom.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 * @return the graph which holds the generation.
+	 * @see DerivationDag
+	 */
+	public DerivationDag deriveDag(int generation, Random randomGenerator) {
+		return new DerivationDag(stream(generation, randomGenerator));
+	}
+}
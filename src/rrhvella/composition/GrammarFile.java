@@ -0,0 +1,648 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Reads and writes compiled grammars in a compact binary format.
+ * 
+ * A grammar file holds the axiom and the flag of the grammar, along with the
+ * flattened arrays of its predecessor trie: the edges of each node, the
+ * predecessors and their successors, the candidates of each node, and the
+ * columns of the alias table of each node. Therefore, a grammar which is read
+ * from a file is ready to be used as soon as the arrays have been copied out
+ * of the file, without building the trie or the alias tables again.
+ * 
+ * The file is made of the following sections, in order. All the numbers are
+ * big-endian, and each string is stored as its length, followed by its
+ * characters.
+ * 
+ * <ol>
+ * <li>The magic number and the version of the format.</li>
+ * <li>The axiom, the flag, 'change entire context', the minimum growth of the
+ * grammar and the length of its longest context.</li>
+ * <li>The number of nodes, edges, predecessors and candidates.</li>
+ * <li>The edge offsets, the edge symbols and the edge targets.</li>
+ * <li>The predecessors, each one stored as its preceding context, letter,
+ * proceeding context, probability and successor.</li>
+ * <li>The predecessor offsets, the candidate offsets, and the index of the
+ * predecessor of each candidate.</li>
+ * <li>For each node, the size and total of its alias table, followed by the
+ * thresholds and aliases of its columns. The size is 0 if the node has no
+ * candidates.</li>
+ * </ol>
+ * 
+ * Grammars can also be written as text, in which each line holds the fields
+ * of an entry separated by tabs. Empty lines, and lines which start with '#',
+ * are ignored. Any symbol can be written as a backslash, followed by 'u' and
+ * the four hexadecimal digits of its code.
+ * 
+ * <pre>
+ * axiom	FFFF
+ * changeEntireContext	true
+ * production	[preceding context]	letter	[proceeding context]	probability	successor
+ * </pre>
+ */
+public class GrammarFile {
+	/**
+	 * The number which every grammar file starts with.
+	 */
+	public static final int MAGIC = 0x4C475246;
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The smallest number of bytes taken by a predecessor in a grammar file:
+	 * the lengths of its two contexts and of its successor, its letter and its
+	 * probability.
+	 */
+	private static final int MIN_PREDECESSOR_SIZE = 18;
+
+	/**
+	 * This class only has static methods.
+	 */
+	private GrammarFile() {
+	}
+
+	/**
+	 * Writes the given grammar to a file.
+	 * 
+	 * Only the productions of the grammar are written, so any additional
+	 * behaviour of a subclass of Grammar is lost.
+	 * 
+	 * @param grammar
+	 *            the grammar which will be written.
+	 * @param file
+	 *            the file which will hold the grammar.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void write(Grammar grammar, File file) throws IOException {
+		PredecessorTrie trie = grammar.getPredecessorTrie();
+		int nodeCount = trie.getNodeCount();
+		int edgeCount = trie.getEdgeEnd(nodeCount - 1);
+		int predecessorCount = trie.getPredecessorEnd(nodeCount - 1);
+		int candidateCount = trie.getCandidateCount();
+
+		// Index the predecessors, so that each candidate can refer to its
+		// predecessor, and find the successor of each predecessor.
+		IdentityHashMap<ContextSensitiveNonDeterministicPredecessor, Integer> predecessorIndices = new IdentityHashMap<ContextSensitiveNonDeterministicPredecessor, Integer>();
+		char[][] successors = new char[predecessorCount][];
+
+		for (int predecessorIndex = 0; predecessorIndex < predecessorCount; predecessorIndex++) {
+			predecessorIndices.put(trie.getPredecessor(predecessorIndex),
+					predecessorIndex);
+		}
+
+		for (int candidateIndex = 0; candidateIndex < candidateCount; candidateIndex++) {
+			successors[predecessorIndices.get(trie
+					.getCandidate(candidateIndex))] = trie
+					.getCandidateSuccessor(candidateIndex);
+		}
+
+		DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+
+		try {
+			// The header.
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			putString(output, grammar.getAxiom());
+			output.writeByte(grammar.isChangeEntireContext() ? 1 : 0);
+			output.writeDouble(grammar.getMinimumGrowth());
+			output.writeInt(trie.getMaxContextLength());
+			output.writeInt(nodeCount);
+			output.writeInt(edgeCount);
+			output.writeInt(predecessorCount);
+			output.writeInt(candidateCount);
+
+			// The edges.
+			for (int node = 0; node < nodeCount; node++) {
+				output.writeInt(trie.getEdgeStart(node));
+			}
+
+			output.writeInt(edgeCount);
+
+			for (int edge = 0; edge < edgeCount; edge++) {
+				output.writeChar(trie.getEdgeSymbol(edge));
+			}
+
+			for (int edge = 0; edge < edgeCount; edge++) {
+				output.writeInt(trie.getEdgeTarget(edge));
+			}
+
+			// The predecessors, along with their successors.
+			for (int predecessorIndex = 0; predecessorIndex < predecessorCount; predecessorIndex++) {
+				ContextSensitiveNonDeterministicPredecessor predecessor = trie
+						.getPredecessor(predecessorIndex);
+
+				putString(output, predecessor.getPrecedingContext());
+				output.writeChar(predecessor.getContext().charAt(
+						predecessor.getPrecedingContext().length()));
+				putString(output, predecessor.getProceedingContext());
+				output.writeInt(predecessor.getProbability());
+				putString(output, new String(successors[predecessorIndex]));
+			}
+
+			// The predecessors and candidates of each node.
+			for (int node = 0; node < nodeCount; node++) {
+				output.writeInt(trie.getPredecessorStart(node));
+			}
+
+			output.writeInt(predecessorCount);
+
+			for (int node = 0; node < nodeCount; node++) {
+				output.writeInt(trie.getCandidateStart(node));
+			}
+
+			output.writeInt(candidateCount);
+
+			for (int candidateIndex = 0; candidateIndex < candidateCount; candidateIndex++) {
+				output.writeInt(predecessorIndices.get(trie
+						.getCandidate(candidateIndex)));
+			}
+
+			// The alias table of each node.
+			for (int node = 0; node < nodeCount; node++) {
+				AliasTable selector = trie.getCandidateSelector(node);
+
+				if (selector == null) {
+					output.writeInt(0);
+					continue;
+				}
+
+				output.writeInt(selector.size());
+				output.writeInt(selector.getTotal());
+
+				for (int threshold : selector.getThresholds()) {
+					output.writeInt(threshold);
+				}
+
+				for (int alias : selector.getAliases()) {
+					output.writeInt(alias);
+				}
+			}
+
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Reads a grammar from a file, by mapping the file into memory.
+	 * 
+	 * @param file
+	 *            the file which holds the grammar.
+	 * @return the grammar held by the file.
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a valid grammar file.
+	 */
+	public static Grammar read(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = input.getChannel();
+
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads a grammar from the given buffer, starting from its position.
+	 * 
+	 * Every count is checked against the bytes left in the buffer before an
+	 * array is allocated for it, and every offset and index of the trie is
+	 * checked against the array it refers to. Therefore a corrupted file is
+	 * rejected when it is read, rather than when the grammar is used.
+	 * 
+	 * @param buffer
+	 *            the buffer which holds the grammar.
+	 * @return the grammar held by the buffer.
+	 * @throws IOException
+	 *             if the buffer does not hold a valid grammar.
+	 */
+	public static Grammar read(ByteBuffer buffer) throws IOException {
+		try {
+			// The header.
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("This is not a grammar file.");
+			}
+
+			int version = buffer.getInt();
+
+			if (version != VERSION) {
+				throw new IOException("Unsupported grammar file version: "
+						+ version);
+			}
+
+			String axiom = getString(buffer);
+			boolean changeEntireContext = buffer.get() != 0;
+			double minimumGrowth = buffer.getDouble();
+			int maxContextLength = buffer.getInt();
+			int nodeCount = buffer.getInt();
+			int edgeCount = buffer.getInt();
+			int predecessorCount = buffer.getInt();
+			int candidateCount = buffer.getInt();
+
+			// Every trie has a root, and every other node is reached by a
+			// single edge. The counts are checked against the bytes left in
+			// the file before any array is allocated.
+			if (nodeCount < 1 || edgeCount != nodeCount - 1
+					|| maxContextLength < 0) {
+				throw new IOException("The grammar file is corrupted.");
+			}
+
+			checkCount(buffer, edgeCount, 2);
+			checkCount(buffer, predecessorCount, MIN_PREDECESSOR_SIZE);
+			checkCount(buffer, candidateCount, 4);
+
+			// The edges.
+			int[] edgeOffsets = getInts(buffer, nodeCount + 1);
+			char[] edgeSymbols = new char[edgeCount];
+			buffer.asCharBuffer().get(edgeSymbols);
+			buffer.position(buffer.position() + 2 * edgeCount);
+			int[] edgeTargets = getInts(buffer, edgeCount);
+
+			checkOffsets(edgeOffsets, edgeCount);
+
+			for (int node = 0; node < nodeCount; node++) {
+				for (int edgeIndex = edgeOffsets[node]; edgeIndex < edgeOffsets[node + 1]; edgeIndex++) {
+					// The nodes are numbered in breadth-first order, so each
+					// edge leads to the node after the one reached by the
+					// edge before it. The edges of each node are searched
+					// with a binary search, so they have to be in increasing
+					// order.
+					if (edgeTargets[edgeIndex] != edgeIndex + 1
+							|| edgeTargets[edgeIndex] <= node
+							|| (edgeIndex > edgeOffsets[node] && edgeSymbols[edgeIndex - 1] >= edgeSymbols[edgeIndex])) {
+						throw new IOException("The grammar file is corrupted.");
+					}
+				}
+			}
+
+			// The predecessors, along with their successors.
+			ContextSensitiveNonDeterministicPredecessor[] predecessors = new ContextSensitiveNonDeterministicPredecessor[predecessorCount];
+			char[][] successors = new char[predecessorCount][];
+			// The length of the longest context of the predecessors.
+			int longestContext = 0;
+
+			for (int predecessorIndex = 0; predecessorIndex < predecessorCount; predecessorIndex++) {
+				String precedingContext = getString(buffer);
+				char letter = buffer.getChar();
+				String proceedingContext = getString(buffer);
+				int probability = buffer.getInt();
+
+				predecessors[predecessorIndex] = new ContextSensitiveNonDeterministicPredecessor(
+						precedingContext, letter, proceedingContext,
+						probability);
+				successors[predecessorIndex] = getString(buffer)
+						.toCharArray();
+
+				longestContext = Math.max(longestContext,
+						predecessors[predecessorIndex].getContextLength());
+			}
+
+			// The windows used to rewrite a generation are as long as the
+			// longest context, so it has to be the one stored in the file.
+			if (longestContext != maxContextLength) {
+				throw new IOException("The grammar file is corrupted.");
+			}
+
+			// The predecessors and candidates of each node.
+			int[] predecessorOffsets = getInts(buffer, nodeCount + 1);
+			int[] candidateOffsets = getInts(buffer, nodeCount + 1);
+			int[] candidatePredecessors = getInts(buffer, candidateCount);
+
+			checkOffsets(predecessorOffsets, predecessorCount);
+			checkOffsets(candidateOffsets, candidateCount);
+
+			ContextSensitiveNonDeterministicPredecessor[] candidates = new ContextSensitiveNonDeterministicPredecessor[candidateCount];
+			char[][] candidateSuccessors = new char[candidateCount][];
+
+			for (int candidateIndex = 0; candidateIndex < candidateCount; candidateIndex++) {
+				int predecessorIndex = candidatePredecessors[candidateIndex];
+
+				if (predecessorIndex < 0 || predecessorIndex >= predecessorCount) {
+					throw new IOException("The grammar file is corrupted.");
+				}
+
+				candidates[candidateIndex] = predecessors[predecessorIndex];
+				candidateSuccessors[candidateIndex] = successors[predecessorIndex];
+			}
+
+			// The alias table of each node.
+			AliasTable[] candidateSelectors = new AliasTable[nodeCount];
+
+			for (int node = 0; node < nodeCount; node++) {
+				int selectorSize = buffer.getInt();
+
+				// The table of a node selects one of its candidates, so it
+				// must have a column for each of them.
+				if (selectorSize != candidateOffsets[node + 1]
+						- candidateOffsets[node]) {
+					throw new IOException("The grammar file is corrupted.");
+				}
+
+				if (selectorSize == 0) {
+					continue;
+				}
+
+				int total = buffer.getInt();
+				int[] thresholds = getInts(buffer, selectorSize);
+				int[] aliases = getInts(buffer, selectorSize);
+
+				if (total <= 0) {
+					throw new IOException("The grammar file is corrupted.");
+				}
+
+				for (int column = 0; column < selectorSize; column++) {
+					if (thresholds[column] < 0 || thresholds[column] > total
+							|| aliases[column] < 0
+							|| aliases[column] >= selectorSize) {
+						throw new IOException("The grammar file is corrupted.");
+					}
+				}
+
+				candidateSelectors[node] = new AliasTable(thresholds, aliases,
+						total);
+			}
+
+			PredecessorTrie trie = new PredecessorTrie(edgeOffsets,
+					edgeSymbols, edgeTargets, predecessorOffsets, predecessors,
+					candidateOffsets, candidates, candidateSuccessors,
+					candidateSelectors, maxContextLength);
+
+			return new Grammar(axiom, changeEntireContext, trie,
+					minimumGrowth);
+		} catch (RuntimeException exception) {
+			// A truncated or corrupted file causes the buffer to underflow, or
+			// an index to be out of bounds.
+			throw new IOException("The grammar file is corrupted.", exception);
+		}
+	}
+
+	/**
+	 * Reads a grammar written as text, and compiles it.
+	 * 
+	 * @param file
+	 *            the file which holds the grammar, as text.
+	 * @return the compiled grammar.
+	 * @throws IOException
+	 *             if the file cannot be read, or is not a valid grammar.
+	 * @see GrammarFile
+	 */
+	public static Grammar parse(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+
+		try {
+			String axiom = null;
+			boolean changeEntireContext = false;
+			HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions = new HashMap<ContextSensitiveNonDeterministicPredecessor, String>();
+			String line;
+			int lineNumber = 0;
+
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+
+				// Skip the empty lines and the comments.
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split("\t", -1);
+
+				try {
+					for (int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++) {
+						fields[fieldIndex] = unescape(fields[fieldIndex]);
+					}
+				} catch (NumberFormatException exception) {
+					throw new IOException("Invalid escape on line "
+							+ lineNumber + ".");
+				}
+
+				if (fields[0].equals("axiom") && fields.length == 2) {
+					axiom = fields[1];
+				} else if (fields[0].equals("changeEntireContext")
+						&& fields.length == 2) {
+					changeEntireContext = Boolean.parseBoolean(fields[1]);
+				} else if (fields[0].equals("production")
+						&& fields.length == 6 && fields[2].length() == 1) {
+					int probability;
+
+					try {
+						probability = Integer.parseInt(fields[4]);
+					} catch (NumberFormatException exception) {
+						throw new IOException("Invalid probability on line "
+								+ lineNumber + ".");
+					}
+
+					productions.put(
+							new ContextSensitiveNonDeterministicPredecessor(
+									fields[1], fields[2].charAt(0), fields[3],
+									probability), fields[5]);
+				} else {
+					throw new IOException("Invalid entry on line " + lineNumber
+							+ ".");
+				}
+			}
+
+			if (axiom == null) {
+				throw new IOException("The grammar does not have an axiom.");
+			}
+
+			return new Grammar(axiom, productions, changeEntireContext);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes a string to the given stream, as its length followed by its
+	 * characters.
+	 * 
+	 * @param output
+	 *            the stream to which the string will be written.
+	 * @param string
+	 *            the string which will be written.
+	 * @throws IOException
+	 *             if the string cannot be written.
+	 */
+	private static void putString(DataOutputStream output, String string)
+			throws IOException {
+		output.writeInt(string.length());
+		output.writeChars(string);
+	}
+
+	/**
+	 * Reads a string from the given buffer.
+	 * 
+	 * @param buffer
+	 *            the buffer from which the string will be read.
+	 * @return the string which was read.
+	 * @throws IOException
+	 *             if the length of the string is negative, or greater than the
+	 *             number of characters left in the buffer.
+	 */
+	private static String getString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+
+		checkCount(buffer, length, 2);
+
+		char[] characters = new char[length];
+
+		for (int charIndex = 0; charIndex < characters.length; charIndex++) {
+			characters[charIndex] = buffer.getChar();
+		}
+
+		return new String(characters);
+	}
+
+	/**
+	 * Checks that the given number of elements, each taking at least the given
+	 * number of bytes, can be held by the rest of the buffer. This is checked
+	 * before an array is allocated for the elements, so that a corrupted count
+	 * cannot exhaust the memory.
+	 * 
+	 * @param buffer
+	 *            the buffer from which the elements will be read.
+	 * @param count
+	 *            the number of elements.
+	 * @param elementSize
+	 *            the smallest number of bytes taken by each element.
+	 * @throws IOException
+	 *             if the count is negative, or the elements cannot fit in the
+	 *             rest of the buffer.
+	 */
+	private static void checkCount(ByteBuffer buffer, int count,
+			int elementSize) throws IOException {
+		if (count < 0 || (long) count * elementSize > buffer.remaining()) {
+			throw new IOException("The grammar file is corrupted.");
+		}
+	}
+
+	/**
+	 * Checks that the given offsets start at 0, never decrease, and end at the
+	 * given count, so that every range which they describe lies within an
+	 * array of that length.
+	 * 
+	 * @param offsets
+	 *            the offset of the first element of each node, followed by
+	 *            the number of elements.
+	 * @param count
+	 *            the number of elements.
+	 * @throws IOException
+	 *             if the offsets are not valid.
+	 */
+	private static void checkOffsets(int[] offsets, int count)
+			throws IOException {
+		if (offsets[0] != 0 || offsets[offsets.length - 1] != count) {
+			throw new IOException("The grammar file is corrupted.");
+		}
+
+		for (int index = 1; index < offsets.length; index++) {
+			if (offsets[index] < offsets[index - 1]) {
+				throw new IOException("The grammar file is corrupted.");
+			}
+		}
+	}
+
+	/**
+	 * Reads an array of integers from the given buffer.
+	 * 
+	 * @param buffer
+	 *            the buffer from which the integers will be read.
+	 * @param count
+	 *            the number of integers which will be read.
+	 * @return the integers which were read.
+	 * @throws IOException
+	 *             if the count is negative, or greater than the number of
+	 *             integers left in the buffer.
+	 */
+	private static int[] getInts(ByteBuffer buffer, int count)
+			throws IOException {
+		checkCount(buffer, count, 4);
+
+		int[] values = new int[count];
+
+		// Copy the integers in bulk, and then move past them.
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * count);
+
+		return values;
+	}
+
+	/**
+	 * Replaces the unicode escapes in the given field with the symbols which
+	 * they represent.
+	 * 
+	 * @param field
+	 *            the field which will be unescaped.
+	 * @return the unescaped field.
+	 */
+	private static String unescape(String field) {
+		if (field.indexOf("\\u") < 0) {
+			return field;
+		}
+
+		StringBuilder result = new StringBuilder();
+		int charIndex = 0;
+
+		while (charIndex < field.length()) {
+			if (field.startsWith("\\u", charIndex)
+					&& charIndex + 6 <= field.length()) {
+				result.append((char) Integer.parseInt(
+						field.substring(charIndex + 2, charIndex + 6), 16));
+				charIndex += 6;
+			} else {
+				result.append(field.charAt(charIndex++));
+			}
+		}
+
+		return result.toString();
+	}
+}
@@ -0,0 +1,229 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+package rrhvella.composition;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles the predecessor trie of a grammar into a tree of method handles,
+ * which matches the contexts of the grammar with the trie unrolled.
+ * 
+ * Each node of the trie becomes a handle which reads the symbol at its depth
+ * once, and tests it against the symbols of the node's edges in turn, with
+ * each test guarding the handle of the matching child. A node which has no
+ * child for the symbol returns the deepest node with candidates reached so
+ * far, which is a constant of the handle. Since the symbols and the nodes of
+ * the trie become constants of the tree, matching a position does not search
+ * the arrays of the trie, and the JIT compiler can compile the tree as a
+ * single unit.
+ * 
+ * The tree is built from the method handles of the standard library, so no
+ * source is compiled and no bytecode is generated, and the matcher is
+ * available on any Java runtime. Building the tree still takes a noticeable
+ * amount of time, so it is only worthwhile for grammars which are used to
+ * rewrite long strings.
+ * 
+ * @see Grammar#compile()
+ */
+class MatcherCompiler {
+	/**
+	 * The maximum number of trie nodes which will be unrolled. Larger tries
+	 * take too long to build into a tree, and are too deep for the JIT
+	 * compiler to inline, so they keep using the trie.
+	 */
+	private static final int MAX_NODES = 2048;
+	/**
+	 * The symbol returned for a position past the end of the source, which
+	 * no edge matches.
+	 */
+	private static final int NO_SYMBOL = -1;
+
+	/**
+	 * A matcher which invokes the tree of method handles built for a trie.
+	 */
+	private static final class CompiledMatcher implements ContextMatcher {
+		/**
+		 * The handle of the root of the trie, which takes the source, its
+		 * length and the position, and returns the matched node.
+		 */
+		private final MethodHandle root;
+
+		/**
+		 * 
+		 * @param root
+		 *            the handle of the root of the trie.
+		 */
+		public CompiledMatcher(MethodHandle root) {
+			this.root = root;
+		}
+
+		@Override
+		public int match(char[] source, int sourceLength, int charIndex) {
+			try {
+				return (int) root.invokeExact(source, sourceLength, charIndex);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				// The handles only call the methods of this class, which do
+				// not throw any checked exception.
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the given trie into a matcher.
+	 * 
+	 * @param trie
+	 *            the trie which will be compiled.
+	 * @return the compiled matcher, or null if the trie could not be compiled.
+	 */
+	public static ContextMatcher compile(PredecessorTrie trie) {
+		if (trie.getNodeCount() > MAX_NODES) {
+			return null;
+		}
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle symbolAt = lookup.findStatic(MatcherCompiler.class,
+					"symbolAt", MethodType.methodType(int.class, int.class,
+							char[].class, int.class, int.class));
+			MethodHandle isSymbol = lookup.findStatic(MatcherCompiler.class,
+					"isSymbol", MethodType.methodType(boolean.class, int.class,
+							int.class));
+
+			return new CompiledMatcher(compileNode(trie, PredecessorTrie.ROOT,
+					0, PredecessorTrie.NO_NODE, symbolAt, isSymbol));
+		} catch (ReflectiveOperationException e) {
+			// If the handles cannot be looked up, keep using the trie.
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the handle which matches the contexts continuing from the given
+	 * node. The handle takes the source, its length and the position, and
+	 * returns the deepest node with candidates which is reached from the
+	 * position.
+	 * 
+	 * @param trie
+	 *            the trie which is being unrolled.
+	 * @param node
+	 *            the node whose handle is built.
+	 * @param depth
+	 *            the number of symbols consumed to reach the node.
+	 * @param matchedNode
+	 *            the deepest node with candidates on the path to the node,
+	 *            excluding the node itself, or {@link PredecessorTrie#NO_NODE}.
+	 * @param symbolAt
+	 *            the handle of {@link #symbolAt(int, char[], int, int)}.
+	 * @param isSymbol
+	 *            the handle of {@link #isSymbol(int, int)}.
+	 * @return the handle of the node.
+	 */
+	private static MethodHandle compileNode(PredecessorTrie trie, int node,
+			int depth, int matchedNode, MethodHandle symbolAt,
+			MethodHandle isSymbol) {
+		// Record the node if any production can be applied through it.
+		if (trie.hasCandidates(node)) {
+			matchedNode = node;
+		}
+
+		MethodHandle matched = MethodHandles.constant(int.class, matchedNode);
+
+		// A node without children always returns the node matched so far.
+		if (trie.getEdgeStart(node) == trie.getEdgeEnd(node)) {
+			return MethodHandles.dropArguments(matched, 0, char[].class,
+					int.class, int.class);
+		}
+
+		// Test the symbol against each edge in turn, starting from the last
+		// one, so that the first edge is tested first. The symbol is passed
+		// in front of the arguments of the node.
+		MethodHandle dispatch = MethodHandles.dropArguments(matched, 0,
+				int.class, char[].class, int.class, int.class);
+
+		for (int edge = trie.getEdgeEnd(node) - 1; edge >= trie
+				.getEdgeStart(node); edge--) {
+			MethodHandle test = MethodHandles.dropArguments(
+					MethodHandles.insertArguments(isSymbol, 1,
+							(int) trie.getEdgeSymbol(edge)), 1, char[].class,
+					int.class, int.class);
+			MethodHandle child = MethodHandles.dropArguments(
+					compileNode(trie, trie.getEdgeTarget(edge), depth + 1,
+							matchedNode, symbolAt, isSymbol), 0, int.class);
+
+			dispatch = MethodHandles.guardWithTest(test, child, dispatch);
+		}
+
+		// Read the symbol at the depth of the node once, and pass it to the
+		// tests of the edges.
+		return MethodHandles.foldArguments(dispatch,
+				MethodHandles.insertArguments(symbolAt, 0, depth));
+	}
+
+	/**
+	 * Returns the symbol at the given depth from the given position, or
+	 * {@link #NO_SYMBOL} if it is past the end of the source.
+	 * 
+	 * @param depth
+	 *            the offset of the symbol from the position.
+	 * @param source
+	 *            the symbols which are being matched.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param charIndex
+	 *            the position which is being matched.
+	 * @return the symbol, or {@link #NO_SYMBOL}.
+	 */
+	private static int symbolAt(int depth, char[] source, int sourceLength,
+			int charIndex) {
+		int symbolIndex = charIndex + depth;
+
+		return symbolIndex < sourceLength ? source[symbolIndex] : NO_SYMBOL;
+	}
+
+	/**
+	 * Returns true if the given symbol is the symbol of an edge.
+	 * 
+	 * @param symbol
+	 *            the symbol which was read from the source, or
+	 *            {@link #NO_SYMBOL}.
+	 * @param edgeSymbol
+	 *            the symbol of the edge.
+	 * @return true if the symbols are equal.
+	 */
+	private static boolean isSymbol(int symbol, int edgeSymbol) {
+		return symbol == edgeSymbol;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * A melodic pattern which has been compiled into the notes it renders.
+ * 
+ * The symbols of a pattern are interpreted with the enhanced sequential
+ * rendering technique given by Worth and Stepney (2005a, p. 5): 'F' plays a
+ * note, '+' and '-' move the chord degree up and down, 'd' and 'D' halve and
+ * double the note duration, and '[' and ']' save and restore the duration and
+ * the degree. Compiling a pattern resolves all of these symbols once, so that
+ * each note is left as a triple of its start, duration and chord degree.
+ * Rendering the pattern is then a single pass over the triples, however many
+ * times the pattern is rendered.
+ */
+public class MelodicPattern {
+	/**
+	 * The number of values stored for each note.
+	 */
+	private static final int NOTE_STRIDE = 3;
+
+	/**
+	 * The start, duration and chord degree of each note, in that order. The
+	 * start and the duration are in tatums, and the start is relative to the
+	 * beginning of the pattern.
+	 */
+	private final int[] notes;
+	/**
+	 * The number of notes in this pattern.
+	 */
+	private final int noteCount;
+	/**
+	 * The number of tatums covered by the notes of this pattern.
+	 */
+	private final int length;
+
+	/**
+	 * 
+	 * @param notes
+	 *            the start, duration and chord degree of each note.
+	 * @param noteCount
+	 *            the number of notes.
+	 * @param length
+	 *            the number of tatums covered by the notes.
+	 */
+	private MelodicPattern(int[] notes, int noteCount, int length) {
+		this.notes = notes;
+		this.noteCount = noteCount;
+		this.length = length;
+	}
+
+	/**
+	 * Compiles the given melodic pattern, starting from a note which lasts an
+	 * entire bar, on the first degree of the chord.
+	 * 
+	 * @param symbols
+	 *            the symbols of the melodic pattern.
+	 * @return the compiled pattern.
+	 * @throws EmptyStackException
+	 *             if the pattern restores more states than it saves.
+	 */
+	public static MelodicPattern compile(CharSequence symbols) {
+		int[] notes = new int[NOTE_STRIDE * 16];
+		int noteCount = 0;
+
+		// The state of the rendering process, and the states which were
+		// saved.
+		int noteDuration = StructuredPolyphonicLSystemNotator.BAR_LENGTH;
+		int chordDegree = 0;
+		int[] stateStack = new int[16];
+		int stackDepth = 0;
+
+		// The number of tatums which have been processed.
+		int lengthProcessed = 0;
+
+		// For each character in the melody string.
+		for (int charIndex = 0; charIndex < symbols.length(); charIndex++) {
+			// Interpret the token.
+			switch (symbols.charAt(charIndex)) {
+			case 'F':
+				// Add a note, with the duration and chord degree of the
+				// current state.
+				if (noteCount * NOTE_STRIDE == notes.length) {
+					notes = Arrays.copyOf(notes, notes.length * 2);
+				}
+
+				notes[noteCount * NOTE_STRIDE] = lengthProcessed;
+				notes[noteCount * NOTE_STRIDE + 1] = noteDuration;
+				notes[noteCount * NOTE_STRIDE + 2] = chordDegree;
+				noteCount++;
+
+				// Update the record of the length processed.
+				lengthProcessed += noteDuration;
+				break;
+
+			case '+':
+				// Increase the chord degree for the current state.
+				chordDegree++;
+				break;
+
+			case '-':
+				// Decrease the chord degree for the current state.
+				chordDegree--;
+				break;
+
+			case 'd':
+				// Halve the note duration for the current state.
+				noteDuration /= 2;
+				break;
+
+			case 'D':
+				// Double the note duration for the current state.
+				noteDuration *= 2;
+				break;
+
+			case '[':
+				// Save the current state.
+				if (stackDepth == stateStack.length) {
+					stateStack = Arrays.copyOf(stateStack, stackDepth * 2);
+				}
+
+				stateStack[stackDepth++] = noteDuration;
+				stateStack[stackDepth++] = chordDegree;
+				break;
+
+			case ']':
+				// Restore the previous state.
+				if (stackDepth == 0) {
+					throw new EmptyStackException();
+				}
+
+				chordDegree = stateStack[--stackDepth];
+				noteDuration = stateStack[--stackDepth];
+				break;
+			}
+		}
+
+		return new MelodicPattern(Arrays.copyOf(notes, noteCount
+				* NOTE_STRIDE), noteCount, lengthProcessed);
+	}
+
+	/**
+	 * Returns the number of notes in this pattern.
+	 * 
+	 * @return the number of notes in this pattern.
+	 */
+	public int getNoteCount() {
+		return noteCount;
+	}
+
+	/**
+	 * Returns the start of the given note, relative to the beginning of the
+	 * pattern.
+	 * 
+	 * @param noteIndex
+	 *            the index of the note.
+	 * @return the start of the note, in tatums.
+	 */
+	public int getStart(int noteIndex) {
+		return notes[noteIndex * NOTE_STRIDE];
+	}
+
+	/**
+	 * Returns the duration of the given note.
+	 * 
+	 * @param noteIndex
+	 *            the index of the note.
+	 * @return the duration of the note, in tatums.
+	 */
+	public int getDuration(int noteIndex) {
+		return notes[noteIndex * NOTE_STRIDE + 1];
+	}
+
+	/**
+	 * Returns the chord degree of the given note.
+	 * 
+	 * @param noteIndex
+	 *            the index of the note.
+	 * @return the chord degree of the note.
+	 */
+	public int getDegree(int noteIndex) {
+		return notes[noteIndex * NOTE_STRIDE + 2];
+	}
+
+	/**
+	 * Returns the number of tatums covered by the notes of this pattern.
+	 * 
+	 * @return the length of this pattern, in tatums.
+	 */
+	public int getLength() {
+		return length;
+	}
+}
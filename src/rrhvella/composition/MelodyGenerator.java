@@ -29,8 +29,12 @@ either expressed or implied, of the FreeBSD Project.
 
 package rrhvella.composition;
 
+import java.util.Arrays;
+import java.util.EmptyStackException;
 import java.util.HashMap;
-import java.util.Stack;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Generates a melody using a context-sensitive stochastic L-system.
@@ -41,12 +45,418 @@ public class MelodyGenerator extends ContextSensitiveNonDeterministicLSystem {
 	 */
 	private static final HashMap<ContextSensitiveNonDeterministicPredecessor, String> MELODY_PRODUCTIONS = getMelodyProductions();
 	/**
-	 * The maximum number of failed iterations this system can attempt before
-	 * returning the original string.
+	 * The grammars which have already been built, indexed by the length of
+	 * their melodies. The grammars are immutable, so they are shared by every
+	 * melody generator of the same length.
+	 */
+	private static final HashMap<Integer, Grammar> GRAMMARS = new HashMap<Integer, Grammar>();
+
+	/**
+	 * Tracks the duration of the notes while a melody is read, in the same way
+	 * as it is rendered.
+	 */
+	private static class DurationTracker {
+		/**
+		 * The current duration, in PPQ.
+		 */
+		private int length;
+		/**
+		 * The durations which were pushed onto the stack.
+		 */
+		private int[] lengthStack = new int[16];
+		/**
+		 * The number of durations on the stack.
+		 */
+		private int depth;
+
+		/**
+		 * 
+		 * @param length
+		 *            the initial duration, in PPQ.
+		 */
+		public DurationTracker(int length) {
+			this.length = length;
+		}
+
+		/**
+		 * Returns the current duration.
+		 * 
+		 * @return the current duration, in PPQ.
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Interprets the given symbol, and performs the operations which
+		 * directly affect the duration of the note.
+		 * 
+		 * @param symbol
+		 *            the symbol which is read.
+		 * @return false if the symbol attempts to divide a note which is equal
+		 *         to 1 PPQ, true otherwise.
+		 * @throws EmptyStackException
+		 *             if the symbol pops a duration from an empty stack.
+		 */
+		public boolean apply(char symbol) {
+			switch (symbol) {
+			case 'd':
+				// A note which is equal to 1 PPQ cannot be divided.
+				if (length == 1) {
+					return false;
+				}
+
+				// Halve the note duration.
+				length /= 2;
+				break;
+			case 'D':
+				// Double the note duration.
+				length *= 2;
+				break;
+			case '[':
+				// Push the current duration onto the stack.
+				if (depth == lengthStack.length) {
+					lengthStack = Arrays.copyOf(lengthStack, depth * 2);
+				}
+
+				lengthStack[depth++] = length;
+				break;
+			case ']':
+				// Pop the previous duration from the stack.
+				if (depth == 0) {
+					throw new EmptyStackException();
+				}
+
+				length = lengthStack[--depth];
+				break;
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * The grammar of the melody generator, which never selects a production
+	 * that would divide a note equal to 1 PPQ.
+	 * 
+	 * A melody cannot be rendered if a note equal to 1 PPQ is divided. The
+	 * duration at which each production is applied is therefore tracked while
+	 * a generation is rewritten, and only the candidates which can be rendered
+	 * at that duration are sampled from, in proportion to their probabilities.
 	 * 
-	 * @see MelodyGenerator#process(String)
+	 * Since the contexts of the productions contain no duration symbols, a
+	 * note equal to 1 PPQ is always reached, whichever productions were
+	 * selected before it, and a production applied to it never consumes a
+	 * shorter note. The probability that the rest of a generation can be
+	 * rendered therefore does not depend on the productions selected so far,
+	 * and each generation has the same distribution as the generations which
+	 * are accepted when invalid ones are rejected and rewritten again. The
+	 * selection is made by the selector of the grammar, so the generations
+	 * streamed by a {@link GenerationCursor} are restricted in the same way.
 	 */
-	private static final int MAX_ITERATIONS = 20;
+	private static class MelodyGrammar extends Grammar {
+		/**
+		 * The shortest duration, in PPQ, at which the successor of each
+		 * candidate of the trie can be rendered.
+		 */
+		private final int[] minimumLengths;
+		/**
+		 * For each node, the distinct minimum lengths of its candidates, in
+		 * increasing order.
+		 */
+		private final int[][] levelLengths;
+		/**
+		 * For each node and each of its minimum lengths except the last, the
+		 * candidates which can be rendered at that length.
+		 */
+		private final int[][][] levelCandidates;
+		/**
+		 * For each node and each of its minimum lengths except the last, the
+		 * table which selects one of the candidates which can be rendered at
+		 * that length. At the last length, every candidate can be rendered, so
+		 * the table of the trie is used instead.
+		 */
+		private final AliasTable[][] levelSelectors;
+
+		/**
+		 * 
+		 * @param length
+		 *            the number of bars in the melody.
+		 */
+		public MelodyGrammar(int length) {
+			super(MelodyGenerator.getAxiom(length), MELODY_PRODUCTIONS, true);
+
+			PredecessorTrie predecessors = getPredecessorTrie();
+			int nodeCount = predecessors.getNodeCount();
+
+			minimumLengths = new int[predecessors.getCandidateCount()];
+			levelLengths = new int[nodeCount][];
+			levelCandidates = new int[nodeCount][][];
+			levelSelectors = new AliasTable[nodeCount][];
+
+			for (int candidateIndex = 0; candidateIndex < minimumLengths.length; candidateIndex++) {
+				minimumLengths[candidateIndex] = getMinimumLength(predecessors
+						.getCandidateSuccessor(candidateIndex));
+			}
+
+			// Precompute, for each node, a table for every set of candidates
+			// which can be rendered at some duration.
+			for (int node = 0; node < nodeCount; node++) {
+				int start = predecessors.getCandidateStart(node);
+				int end = predecessors.getCandidateStart(node + 1);
+				TreeSet<Integer> lengths = new TreeSet<Integer>();
+
+				for (int candidateIndex = start; candidateIndex < end; candidateIndex++) {
+					lengths.add(minimumLengths[candidateIndex]);
+				}
+
+				levelLengths[node] = new int[lengths.size()];
+				levelCandidates[node] = new int[Math.max(lengths.size() - 1, 0)][];
+				levelSelectors[node] = new AliasTable[levelCandidates[node].length];
+
+				int level = 0;
+
+				for (int levelLength : lengths) {
+					levelLengths[node][level] = levelLength;
+
+					if (level < levelCandidates[node].length) {
+						buildLevel(node, level, start, end, levelLength);
+					}
+
+					level++;
+				}
+			}
+		}
+
+		/**
+		 * Creates a copy of the given grammar, which matches contexts with the
+		 * given matcher.
+		 * 
+		 * @param grammar
+		 *            the grammar which will be copied.
+		 * @param matcher
+		 *            the matcher used by the copy.
+		 */
+		private MelodyGrammar(MelodyGrammar grammar, ContextMatcher matcher) {
+			super(grammar, matcher);
+
+			// The copy shares the trie, so the tables can be shared as well.
+			minimumLengths = grammar.minimumLengths;
+			levelLengths = grammar.levelLengths;
+			levelCandidates = grammar.levelCandidates;
+			levelSelectors = grammar.levelSelectors;
+		}
+
+		@Override
+		protected Grammar copy(ContextMatcher matcher) {
+			return new MelodyGrammar(this, matcher);
+		}
+
+		/**
+		 * Builds the table which selects one of the candidates of the given
+		 * node which can be rendered at the given duration.
+		 * 
+		 * @param node
+		 *            the index of the node.
+		 * @param level
+		 *            the index of the duration in the minimum lengths of the
+		 *            node.
+		 * @param start
+		 *            the index of the first candidate of the node.
+		 * @param end
+		 *            the index after the last candidate of the node.
+		 * @param length
+		 *            the duration, in PPQ.
+		 */
+		private void buildLevel(int node, int level, int start, int end,
+				int length) {
+			PredecessorTrie predecessors = getPredecessorTrie();
+			int count = 0;
+
+			for (int candidateIndex = start; candidateIndex < end; candidateIndex++) {
+				if (minimumLengths[candidateIndex] <= length) {
+					count++;
+				}
+			}
+
+			int[] candidates = new int[count];
+			int[] weights = new int[count];
+
+			count = 0;
+
+			for (int candidateIndex = start; candidateIndex < end; candidateIndex++) {
+				if (minimumLengths[candidateIndex] <= length) {
+					candidates[count] = candidateIndex;
+					weights[count] = predecessors.getCandidate(candidateIndex)
+							.getProbability();
+					count++;
+				}
+			}
+
+			levelCandidates[node][level] = candidates;
+			levelSelectors[node][level] = new AliasTable(weights);
+		}
+
+		/**
+		 * Returns the shortest duration at which the given successor can be
+		 * rendered.
+		 * 
+		 * Halving and doubling a longer note never gives a shorter one, so a
+		 * successor which can be rendered at some duration can also be
+		 * rendered at any longer one.
+		 * 
+		 * @param successor
+		 *            the successor of a production.
+		 * @return the shortest duration, in PPQ, at which the successor can be
+		 *         rendered.
+		 */
+		private static int getMinimumLength(char[] successor) {
+			for (int length = 1;; length++) {
+				DurationTracker duration = new DurationTracker(length);
+				boolean valid = true;
+
+				for (int charIndex = 0; charIndex < successor.length && valid; charIndex++) {
+					valid = duration.apply(successor[charIndex]);
+				}
+
+				if (valid) {
+					return length;
+				}
+			}
+		}
+
+		/**
+		 * Randomly selects one of the candidates of the given node which can
+		 * be rendered at the given duration.
+		 * 
+		 * @param node
+		 *            the index of the node.
+		 * @param length
+		 *            the duration, in PPQ, at which the production is applied.
+		 * @param randomGenerator
+		 *            the random number generator used to select the candidate.
+		 * @return the index of the selected candidate, or
+		 *         {@link ProductionSelector#NO_CANDIDATE} if none of the
+		 *         candidates can be rendered.
+		 */
+		private int selectCandidate(int node, int length, Random randomGenerator) {
+			int[] lengths = levelLengths[node];
+
+			// If every candidate can be rendered, select from all of them.
+			if (length >= lengths[lengths.length - 1]) {
+				return getPredecessorTrie().selectCandidate(node,
+						randomGenerator);
+			}
+
+			// Otherwise, find the largest set of candidates which can be.
+			int level = lengths.length - 2;
+
+			while (level >= 0 && lengths[level] > length) {
+				level--;
+			}
+
+			if (level < 0) {
+				return ProductionSelector.NO_CANDIDATE;
+			}
+
+			return levelCandidates[node][level][levelSelectors[node][level]
+					.select(randomGenerator)];
+		}
+
+		/**
+		 * Returns a new selector, which only selects the productions that can
+		 * be rendered at the duration reached by the symbols written so far.
+		 * 
+		 * @return the selector for a new rewrite.
+		 */
+		@Override
+		ProductionSelector newSelector() {
+			return new MelodySelector();
+		}
+
+		/**
+		 * Selects only the productions which can be rendered, by tracking the
+		 * duration of the notes written while a generation is rewritten.
+		 */
+		private class MelodySelector extends ProductionSelector {
+			/**
+			 * The duration of the notes written so far.
+			 */
+			private DurationTracker duration = new DurationTracker(
+					StructuredPolyphonicLSystemNotator.BAR_LENGTH);
+			/**
+			 * False if a symbol which cannot be rendered was written, or
+			 * there was a note equal to 1 PPQ which every valid production
+			 * would divide.
+			 */
+			private boolean valid = true;
+
+			public MelodySelector() {
+				super(getPredecessorTrie());
+			}
+
+			@Override
+			public int select(int node, Random randomGenerator) {
+				// Only select from the rules which can be rendered at the
+				// current duration.
+				int candidateIndex = selectCandidate(node,
+						duration.getLength(), randomGenerator);
+
+				if (candidateIndex == NO_CANDIDATE) {
+					valid = false;
+				}
+
+				return candidateIndex;
+			}
+
+			@Override
+			public void copied(char symbol) {
+				if (!duration.apply(symbol)) {
+					valid = false;
+				}
+			}
+
+			@Override
+			public void applied(int candidateIndex) {
+				char[] successor = predecessors
+						.getCandidateSuccessor(candidateIndex);
+
+				for (int successorIndex = 0; successorIndex < successor.length; successorIndex++) {
+					duration.apply(successor[successorIndex]);
+				}
+			}
+
+			@Override
+			public boolean isValid() {
+				return valid;
+			}
+		}
+
+		/**
+		 * Process the given symbols according to the rewriting rules of this
+		 * grammar, and write the result into the given buffer. The duration at
+		 * each position depends on every symbol before it, so the symbols are
+		 * rewritten in a single pass, selecting the production at each
+		 * position as determined by the seed.
+		 * 
+		 * @param source
+		 *            the array which holds the symbols which will be rewritten.
+		 * @param sourceLength
+		 *            the number of symbols in the source array.
+		 * @param result
+		 *            the buffer which will hold the result of the rewriting
+		 *            process.
+		 * @param seed
+		 *            the seed which determines the productions selected.
+		 * @param pool
+		 *            the pool which runs the tasks (not used).
+		 */
+		@Override
+		protected void processParallel(char[] source, int sourceLength,
+				SymbolBuffer result, long seed, ForkJoinPool pool) {
+			process(source, sourceLength, result, new PositionalRandom(seed));
+		}
+	}
 
 	/**
 	 * 
@@ -54,7 +464,30 @@ public class MelodyGenerator extends ContextSensitiveNonDeterministicLSystem {
 	 *            the number of bars in the melody.
 	 */
 	public MelodyGenerator(int length) {
-		super(getAxiom(length), MELODY_PRODUCTIONS, true);
+		super(getGrammar(length));
+	}
+
+	/**
+	 * Returns the grammar which generates melodies of the given length. The
+	 * grammar is only built the first time that it is requested, and is then
+	 * shared.
+	 * 
+	 * @param length
+	 *            the number of bars in the melody.
+	 * @return the grammar which generates melodies of the given length.
+	 */
+	public static Grammar getGrammar(int length) {
+		synchronized (GRAMMARS) {
+			Grammar grammar = GRAMMARS.get(length);
+
+			// Build the grammar, if this has not been done already.
+			if (grammar == null) {
+				grammar = new MelodyGrammar(length);
+				GRAMMARS.put(length, grammar);
+			}
+
+			return grammar;
+		}
 	}
 
 	/**
@@ -84,83 +517,6 @@ public class MelodyGenerator extends ContextSensitiveNonDeterministicLSystem {
 		return axiom;
 	}
 
-	/**
-	 * Process the given string according to the rewriting the rules of this
-	 * grammar and return the result.
-	 * 
-	 * @param source
-	 *            the string which will be rewritten.
-	 * @return the result of the rewriting process.
-	 */
-	public String process(String source) {
-		String result = "";
-
-		// Keep iterating until a valid descendant of this string is found.
-		// After a number of failed iterations, the original string should be
-		// returned instead.
-		int iterations = 0;
-
-		while (!valid(result = super.process(source))) {
-			if (++iterations == MAX_ITERATIONS) {
-				return source;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * Returns true if the given string is valid.
-	 * 
-	 * A string is valid if and only if, during rendering no attempt is made to
-	 * divide a note equal to 1 PPQ. If such an attempt is made during the
-	 * actual rendering process, an error would be caused.
-	 * 
-	 * @param stringToCheck
-	 *            the string which will be validated.
-	 * @return true if the given string is valid.
-	 */
-	private boolean valid(String stringToCheck) {
-		// The length, in PPQ, of a single bar.
-		int length = StructuredPolyphonicLSystemNotator.BAR_LENGTH;
-
-		// The state stack for the duration of the note.
-		Stack<Integer> lengthStack = new Stack<Integer>();
-
-		// For each character in the given string.
-		for (char characterToken : stringToCheck.toCharArray()) {
-			// Interpret the character, and perform the operations which
-			// directly effect the duration of the note.
-			switch (characterToken) {
-			case 'd':
-				// If an attempt is made to divide a note which is equal to 1
-				// PPQ, return false.
-				if (length == 1) {
-					return false;
-				}
-
-				// Halve the note duration.
-				length /= 2;
-				break;
-			case 'D':
-				// Double the note duration.
-				length *= 2;
-				break;
-			case '[':
-				// Push the current duration onto the stack.
-				lengthStack.push(length);
-				break;
-			case ']':
-				// Pop the previous duration from the stack.
-				length = lengthStack.pop();
-				break;
-			}
-		}
-
-		// If no anomalies were found, return true.
-		return true;
-	}
-
 	/**
 	 * Returns the productions of the melody generator.
 	 * 
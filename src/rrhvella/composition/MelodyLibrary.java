@@ -0,0 +1,500 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * A library of melodic patterns which were derived in advance and stored in a
+ * file, from which patterns are sampled uniformly at random.
+ * 
+ * The file is mapped into memory when the library is opened, and only the
+ * header and the offsets of the patterns are read, to check that the file is
+ * consistent. Therefore, opening a library is almost instant, and taking a
+ * pattern only reads the pages which hold its symbols. Since the mapping is read-only,
+ * the pages are shared by every process which uses the same library.
+ * 
+ * The file is made of the following sections, in order. All the numbers are
+ * big-endian.
+ * 
+ * <ol>
+ * <li>The magic number and the version of the format.</li>
+ * <li>The shortest and longest phrase lengths, and the smallest and largest
+ * numbers of iterations, which the library holds patterns for.</li>
+ * <li>The number of patterns for each combination of length and number of
+ * iterations, ordered by length and then by number of iterations.</li>
+ * <li>The symbols of all the patterns, in the same order, one byte each.</li>
+ * <li>The offset of each pattern from the start of the symbols, followed by
+ * the total number of symbols. This section ends the file.</li>
+ * </ol>
+ */
+public class MelodyLibrary implements MelodyPatternSource {
+	/**
+	 * The number which every library file starts with.
+	 */
+	public static final int MAGIC = 0x4C4D4C42;
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The number of bytes in the header, before the pattern counts.
+	 */
+	private static final int HEADER_LENGTH = 24;
+
+	/**
+	 * The mapped file.
+	 */
+	private final ByteBuffer buffer;
+	/**
+	 * The shortest phrase length which the library holds patterns for.
+	 */
+	private final int minLength;
+	/**
+	 * The longest phrase length which the library holds patterns for.
+	 */
+	private final int maxLength;
+	/**
+	 * The smallest number of iterations which the library holds patterns for.
+	 */
+	private final int minIterations;
+	/**
+	 * The largest number of iterations which the library holds patterns for.
+	 */
+	private final int maxIterations;
+	/**
+	 * The index of the first pattern of each combination of length and number
+	 * of iterations, followed by the total number of patterns.
+	 */
+	private final int[] firstPatterns;
+	/**
+	 * The position in the file of the first symbol of the patterns.
+	 */
+	private final int symbolsStart;
+	/**
+	 * The position in the file of the offsets of the patterns.
+	 */
+	private final int offsetsStart;
+	/**
+	 * The random number generator used to sample the patterns.
+	 */
+	private final Random randomGenerator = new Random();
+
+	/**
+	 * Creates a library over the given buffer, after reading its header and
+	 * checking that it holds patterns for every combination of the given
+	 * ranges of lengths and numbers of iterations.
+	 * 
+	 * @param buffer
+	 *            the buffer which holds the library.
+	 * @param requiredMinLength
+	 *            the shortest phrase length which the library has to hold
+	 *            patterns for.
+	 * @param requiredMaxLength
+	 *            the longest phrase length which the library has to hold
+	 *            patterns for.
+	 * @param requiredMinIterations
+	 *            the smallest number of iterations which the library has to
+	 *            hold patterns for.
+	 * @param requiredMaxIterations
+	 *            the largest number of iterations which the library has to
+	 *            hold patterns for.
+	 * @throws IOException
+	 *             if the buffer does not hold a valid library, or the library
+	 *             does not hold patterns for every required combination.
+	 */
+	private MelodyLibrary(ByteBuffer buffer, int requiredMinLength,
+			int requiredMaxLength, int requiredMinIterations,
+			int requiredMaxIterations) throws IOException {
+		this.buffer = buffer;
+
+		try {
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("This is not a melody library.");
+			}
+
+			int version = buffer.getInt(4);
+
+			if (version != VERSION) {
+				throw new IOException("Unsupported melody library version: "
+						+ version);
+			}
+
+			minLength = buffer.getInt(8);
+			maxLength = buffer.getInt(12);
+			minIterations = buffer.getInt(16);
+			maxIterations = buffer.getInt(20);
+
+			if (minLength < 1 || maxLength < minLength || minIterations < 0
+					|| maxIterations < minIterations) {
+				throw new IOException("The melody library is corrupted.");
+			}
+
+			// The library has to cover every combination which will be
+			// taken from it, so that a library derived for other ranges is
+			// rejected now, rather than while a piece is being rendered.
+			if (minLength > requiredMinLength
+					|| maxLength < requiredMaxLength
+					|| minIterations > requiredMinIterations
+					|| maxIterations < requiredMaxIterations) {
+				throw new IOException("The melody library holds patterns for "
+						+ minLength + " to " + maxLength + " bars and "
+						+ minIterations + " to " + maxIterations
+						+ " iterations, but " + requiredMinLength + " to "
+						+ requiredMaxLength + " bars and "
+						+ requiredMinIterations + " to "
+						+ requiredMaxIterations + " iterations are needed.");
+			}
+
+			long shapeCount = ((long) maxLength - minLength + 1)
+					* ((long) maxIterations - minIterations + 1);
+
+			if (HEADER_LENGTH + 4 * shapeCount > buffer.limit()) {
+				throw new IOException("The melody library is truncated.");
+			}
+
+			// Add up the pattern counts, to find where each combination
+			// starts. Each pattern takes at least the four bytes of its
+			// offset, which bounds the total.
+			firstPatterns = new int[(int) shapeCount + 1];
+
+			for (int shapeIndex = 0; shapeIndex < shapeCount; shapeIndex++) {
+				int patternCount = buffer.getInt(HEADER_LENGTH + 4
+						* shapeIndex);
+				long total = (long) firstPatterns[shapeIndex] + patternCount;
+
+				if (patternCount < 0 || 4 * total > buffer.limit()) {
+					throw new IOException("The melody library is corrupted.");
+				}
+
+				firstPatterns[shapeIndex + 1] = (int) total;
+			}
+
+			symbolsStart = HEADER_LENGTH + 4 * (int) shapeCount;
+			offsetsStart = buffer.limit() - 4
+					* (firstPatterns[(int) shapeCount] + 1);
+
+			if (offsetsStart < symbolsStart
+					|| buffer.getInt(buffer.limit() - 4) != offsetsStart
+							- symbolsStart) {
+				throw new IOException("The melody library is truncated.");
+			}
+
+			// The patterns are stored one after the other, so their offsets
+			// start from the beginning of the symbols and never decrease.
+			int previousOffset = 0;
+
+			for (int patternIndex = 0; patternIndex <= firstPatterns[(int) shapeCount]; patternIndex++) {
+				int offset = buffer.getInt(offsetsStart + 4 * patternIndex);
+
+				if (offset < previousOffset
+						|| (patternIndex == 0 && offset != 0)) {
+					throw new IOException("The melody library is corrupted.");
+				}
+
+				previousOffset = offset;
+			}
+
+			// Every required combination has to hold at least one pattern.
+			for (int length = requiredMinLength; length <= requiredMaxLength; length++) {
+				for (int iterations = requiredMinIterations; iterations <= requiredMaxIterations; iterations++) {
+					int shapeIndex = getShapeIndex(length, iterations);
+
+					if (firstPatterns[shapeIndex + 1] == firstPatterns[shapeIndex]) {
+						throw new IOException("The melody library holds no "
+								+ "patterns for " + length + " bars and "
+								+ iterations + " iterations.");
+					}
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("The melody library is truncated.", e);
+		}
+	}
+
+	/**
+	 * Opens a library, by mapping its file into memory. The library has to
+	 * hold patterns for every phrase length and number of iterations used by
+	 * the {@link StructuredPolyphonicLSystemNotator}.
+	 * 
+	 * @param file
+	 *            the file which holds the library.
+	 * @return the library held by the file.
+	 * @throws IOException
+	 *             if the file cannot be read, is not a valid library, or does
+	 *             not hold patterns for every phrase length and number of
+	 *             iterations used by the notator.
+	 */
+	public static MelodyLibrary open(File file) throws IOException {
+		return open(file, StructuredPolyphonicLSystemNotator.MIN_PHRASE_LENGTH,
+				StructuredPolyphonicLSystemNotator.MAX_PHRASE_LENGTH,
+				StructuredPolyphonicLSystemNotator.MIN_MELODY_ITERATIONS,
+				StructuredPolyphonicLSystemNotator.MAX_MELODY_ITERATIONS);
+	}
+
+	/**
+	 * Opens a library, by mapping its file into memory, and checks that it
+	 * holds patterns for every combination of the given ranges of lengths and
+	 * numbers of iterations.
+	 * 
+	 * @param file
+	 *            the file which holds the library.
+	 * @param minLength
+	 *            the shortest phrase length which the library has to hold
+	 *            patterns for.
+	 * @param maxLength
+	 *            the longest phrase length which the library has to hold
+	 *            patterns for.
+	 * @param minIterations
+	 *            the smallest number of iterations which the library has to
+	 *            hold patterns for.
+	 * @param maxIterations
+	 *            the largest number of iterations which the library has to
+	 *            hold patterns for.
+	 * @return the library held by the file.
+	 * @throws IOException
+	 *             if the file cannot be read, is not a valid library, or does
+	 *             not hold patterns for every combination of the given ranges.
+	 */
+	public static MelodyLibrary open(File file, int minLength, int maxLength,
+			int minIterations, int maxIterations) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = input.getChannel();
+
+			return new MelodyLibrary(channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size()), minLength, maxLength, minIterations,
+					maxIterations);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Derives a library and writes it to a file.
+	 * 
+	 * @param file
+	 *            the file which will hold the library.
+	 * @param minLength
+	 *            the shortest phrase length, in bars, to derive patterns for.
+	 * @param maxLength
+	 *            the longest phrase length, in bars, to derive patterns for.
+	 * @param minIterations
+	 *            the smallest number of iterations to derive patterns for.
+	 * @param maxIterations
+	 *            the largest number of iterations to derive patterns for.
+	 * @param patternsPerShape
+	 *            the number of patterns derived for each combination of
+	 *            length and number of iterations.
+	 * @param randomGenerator
+	 *            the random number generator used by the derivations.
+	 * @throws IOException
+	 *             if the file cannot be written, or the patterns do not fit
+	 *             in a library.
+	 */
+	public static void write(File file, int minLength, int maxLength,
+			int minIterations, int maxIterations, int patternsPerShape,
+			Random randomGenerator) throws IOException {
+		if (minLength < 1 || maxLength < minLength || minIterations < 0
+				|| maxIterations < minIterations || patternsPerShape < 1) {
+			throw new IllegalArgumentException("Invalid melody library shape.");
+		}
+
+		int shapeCount = (maxLength - minLength + 1)
+				* (maxIterations - minIterations + 1);
+		long patternCount = (long) shapeCount * patternsPerShape;
+
+		if (patternCount >= Integer.MAX_VALUE / 4) {
+			throw new IOException("Too many patterns for a melody library.");
+		}
+
+		// The offsets are only written after the symbols, so they are kept
+		// until then.
+		int[] offsets = new int[(int) patternCount + 1];
+		int patternIndex = 0;
+		long symbolCount = 0;
+
+		DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+
+		try {
+			// The header.
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(minLength);
+			output.writeInt(maxLength);
+			output.writeInt(minIterations);
+			output.writeInt(maxIterations);
+
+			for (int shapeIndex = 0; shapeIndex < shapeCount; shapeIndex++) {
+				output.writeInt(patternsPerShape);
+			}
+
+			// The symbols of the patterns.
+			for (int length = minLength; length <= maxLength; length++) {
+				Derivation derivation = MelodyGenerator.getGrammar(length)
+						.newDerivation(randomGenerator);
+
+				for (int iterations = minIterations; iterations <= maxIterations; iterations++) {
+					for (int copy = 0; copy < patternsPerShape; copy++) {
+						// Derive each pattern independently, from the axiom.
+						derivation.reset();
+
+						for (int iterationIndex = 0; iterationIndex < iterations; iterationIndex++) {
+							derivation.advance();
+						}
+
+						SymbolBuffer pattern = derivation.getCurrentSymbols();
+						char[] symbols = pattern.getSymbols();
+
+						for (int charIndex = 0; charIndex < pattern.length(); charIndex++) {
+							if (symbols[charIndex] > 0xFF) {
+								throw new IOException("The symbol "
+										+ symbols[charIndex]
+										+ " cannot be stored in a library.");
+							}
+
+							output.writeByte(symbols[charIndex]);
+						}
+
+						offsets[patternIndex++] = (int) symbolCount;
+						symbolCount += pattern.length();
+
+						if (symbolCount + 4 * (patternCount + 1)
+								+ HEADER_LENGTH + 4 * shapeCount > Integer.MAX_VALUE) {
+							throw new IOException(
+									"The patterns do not fit in a melody library.");
+						}
+					}
+				}
+			}
+
+			// The offsets of the patterns.
+			offsets[patternIndex] = (int) symbolCount;
+
+			for (int offset : offsets) {
+				output.writeInt(offset);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Returns a pattern sampled uniformly at random from the patterns of the
+	 * given length and number of iterations.
+	 * 
+	 * @param length
+	 *            the length of the phrase, in bars.
+	 * @param iterations
+	 *            the number of iterations of the melody system.
+	 * @return the melodic pattern.
+	 * @throws IllegalArgumentException
+	 *             if the library holds no patterns for the given length and
+	 *             number of iterations.
+	 */
+	@Override
+	public String take(int length, int iterations) {
+		int shapeIndex = getShapeIndex(length, iterations);
+		int patternCount = firstPatterns[shapeIndex + 1]
+				- firstPatterns[shapeIndex];
+
+		if (patternCount == 0) {
+			throw new IllegalArgumentException("No patterns are stored for "
+					+ length + " bars and " + iterations + " iterations.");
+		}
+
+		return getPattern(firstPatterns[shapeIndex]
+				+ randomGenerator.nextInt(patternCount));
+	}
+
+	/**
+	 * Returns the total number of patterns in this library.
+	 * 
+	 * @return the total number of patterns in this library.
+	 */
+	public int getPatternCount() {
+		return firstPatterns[firstPatterns.length - 1];
+	}
+
+	/**
+	 * Returns the pattern at the given index.
+	 * 
+	 * @param patternIndex
+	 *            the index of the pattern, across all the combinations of
+	 *            length and number of iterations.
+	 * @return the pattern at the given index.
+	 */
+	private String getPattern(int patternIndex) {
+		int start = buffer.getInt(offsetsStart + 4 * patternIndex);
+		int end = buffer.getInt(offsetsStart + 4 * patternIndex + 4);
+		char[] symbols = new char[end - start];
+
+		for (int charIndex = 0; charIndex < symbols.length; charIndex++) {
+			symbols[charIndex] = (char) (buffer.get(symbolsStart + start
+					+ charIndex) & 0xFF);
+		}
+
+		return new String(symbols);
+	}
+
+	/**
+	 * Returns the index of the given combination of length and number of
+	 * iterations.
+	 * 
+	 * @param length
+	 *            the length of the phrase, in bars.
+	 * @param iterations
+	 *            the number of iterations of the melody system.
+	 * @return the index of the combination.
+	 * @throws IllegalArgumentException
+	 *             if the library holds no patterns for the given length and
+	 *             number of iterations.
+	 */
+	private int getShapeIndex(int length, int iterations) {
+		if (length < minLength || length > maxLength
+				|| iterations < minIterations || iterations > maxIterations) {
+			throw new IllegalArgumentException("No patterns are stored for "
+					+ length + " bars and " + iterations + " iterations.");
+		}
+
+		return (length - minLength) * (maxIterations - minIterations + 1)
+				+ iterations - minIterations;
+	}
+}
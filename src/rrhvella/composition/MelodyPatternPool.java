@@ -0,0 +1,399 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A pool of melodic patterns which were derived in advance by background
+ * workers, for each combination of phrase length and number of iterations.
+ * 
+ * The pool keeps a queue of patterns for each combination, and the workers
+ * refill each queue up to a target depth whenever patterns are taken from it.
+ * The depth can be raised while the pool is running, when more patterns of
+ * the same combination are needed at once.
+ * Taking a pattern never blocks: if the queue for the requested combination
+ * is empty, the pattern is derived by the calling thread instead.
+ * 
+ * Each pattern is derived by the melody grammar of its length, so drawing a
+ * pattern from the pool does not change its distribution. As with the voices
+ * of a token, the patterns which a worker adds for the same length in a single
+ * pass branch from a shared generation, which is only derived once.
+ * 
+ * @see StructuredPolyphonicLSystemNotator#SHARED_MELODY_ITERATIONS
+ */
+public class MelodyPatternPool implements MelodyPatternSource {
+	/**
+	 * The shortest phrase length, in bars, which the pool holds patterns for.
+	 */
+	private final int minLength;
+	/**
+	 * The longest phrase length, in bars, which the pool holds patterns for.
+	 */
+	private final int maxLength;
+	/**
+	 * The smallest number of iterations which the pool holds patterns for.
+	 */
+	private final int minIterations;
+	/**
+	 * The largest number of iterations which the pool holds patterns for.
+	 */
+	private final int maxIterations;
+	/**
+	 * The queues of patterns, indexed by {@link #getQueueIndex(int, int)}.
+	 */
+	private final ArrayList<LinkedBlockingQueue<String>> queues;
+	/**
+	 * The number of patterns which the workers keep in each queue.
+	 */
+	private volatile int depth;
+	/**
+	 * The lock on which idle workers wait until patterns are taken.
+	 */
+	private final Object refillLock = new Object();
+	/**
+	 * True if patterns were taken since the workers last checked the queues.
+	 * Guarded by {@link #refillLock}.
+	 */
+	private boolean refillRequested = true;
+	/**
+	 * True once the pool has been shut down. Guarded by {@link #refillLock}.
+	 */
+	private boolean shutDown;
+
+	/**
+	 * A background worker, which refills the queues of some of the phrase
+	 * lengths.
+	 */
+	private class Worker implements Runnable {
+		/**
+		 * The first phrase length which this worker refills.
+		 */
+		private final int firstLength;
+		/**
+		 * The difference between consecutive phrase lengths which this worker
+		 * refills.
+		 */
+		private final int lengthStep;
+		/**
+		 * The random number generator used by this worker's derivations.
+		 */
+		private final Random randomGenerator = new Random();
+
+		/**
+		 * 
+		 * @param firstLength
+		 *            the first phrase length which this worker refills.
+		 * @param lengthStep
+		 *            the difference between consecutive phrase lengths which
+		 *            this worker refills.
+		 */
+		public Worker(int firstLength, int lengthStep) {
+			this.firstLength = firstLength;
+			this.lengthStep = lengthStep;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (awaitRefill()) {
+					refill();
+				}
+			} catch (InterruptedException e) {
+				// The pool is being shut down.
+			}
+		}
+
+		/**
+		 * Adds patterns to this worker's queues until all of them are full. A
+		 * single pattern is added to each queue in turn, so that no queue
+		 * waits for another one to be filled completely.
+		 */
+		private void refill() {
+			boolean added;
+
+			do {
+				added = false;
+
+				for (int length = firstLength; length <= maxLength; length += lengthStep) {
+					// The derivation, and the generation shared by the patterns
+					// added for this length, which are only derived if needed.
+					Derivation derivation = null;
+					DerivationSnapshot sharedMelody = null;
+
+					for (int iterations = minIterations; iterations <= maxIterations; iterations++) {
+						LinkedBlockingQueue<String> queue = queues
+								.get(getQueueIndex(length, iterations));
+
+						// Only this worker adds to the queue, so it never
+						// holds more patterns than the depth.
+						if (queue.size() >= depth) {
+							continue;
+						}
+
+						if (derivation == null) {
+							derivation = MelodyGenerator.getGrammar(length)
+									.newDerivation(randomGenerator);
+							advance(derivation, getSharedIterations());
+							sharedMelody = derivation.snapshot();
+						}
+
+						advance(derivation, iterations);
+						queue.offer(derivation.getCurrentString());
+						derivation.restore(sharedMelody);
+						added = true;
+					}
+				}
+
+			} while (added);
+		}
+	}
+
+	/**
+	 * 
+	 * @param minLength
+	 *            the shortest phrase length, in bars, to hold patterns for.
+	 * @param maxLength
+	 *            the longest phrase length, in bars, to hold patterns for.
+	 * @param minIterations
+	 *            the smallest number of iterations to hold patterns for.
+	 * @param maxIterations
+	 *            the largest number of iterations to hold patterns for.
+	 * @param depth
+	 *            the number of patterns which the workers keep in the queue of
+	 *            each combination of length and number of iterations.
+	 * @throws IllegalArgumentException
+	 *             if a range is empty, or the depth is not positive.
+	 */
+	public MelodyPatternPool(int minLength, int maxLength, int minIterations,
+			int maxIterations, int depth) {
+		if (minLength < 1 || maxLength < minLength || minIterations < 0
+				|| maxIterations < minIterations || depth < 1) {
+			throw new IllegalArgumentException("Invalid pattern pool shape.");
+		}
+
+		this.minLength = minLength;
+		this.maxLength = maxLength;
+		this.minIterations = minIterations;
+		this.maxIterations = maxIterations;
+
+		// Create the queues.
+		int queueCount = (maxLength - minLength + 1)
+				* (maxIterations - minIterations + 1);
+
+		queues = new ArrayList<LinkedBlockingQueue<String>>(queueCount);
+
+		for (int queueIndex = 0; queueIndex < queueCount; queueIndex++) {
+			queues.add(new LinkedBlockingQueue<String>());
+		}
+
+		this.depth = depth;
+
+		// Start the workers. Each one refills the queues of a different set
+		// of lengths, so that they never derive patterns for the same queue.
+		int workerCount = Math.min(Runtime.getRuntime().availableProcessors(),
+				maxLength - minLength + 1);
+
+		for (int workerIndex = 0; workerIndex < workerCount; workerIndex++) {
+			Thread thread = new Thread(new Worker(minLength + workerIndex,
+					workerCount), "MelodyPatternPool-" + workerIndex);
+
+			// The workers should not keep the application running.
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns a pattern derived for the given length and number of iterations,
+	 * removing it from the pool. If no such pattern is available, it is
+	 * derived by the calling thread.
+	 * 
+	 * @param length
+	 *            the length of the phrase, in bars.
+	 * @param iterations
+	 *            the number of iterations of the melody system.
+	 * @return the melodic pattern.
+	 * @throws IllegalArgumentException
+	 *             if the pool does not hold patterns for the given length and
+	 *             number of iterations.
+	 */
+	@Override
+	public String take(int length, int iterations) {
+		String pattern = queues.get(getQueueIndex(length, iterations)).poll();
+
+		// Let the workers replace the pattern.
+		synchronized (refillLock) {
+			refillRequested = true;
+			refillLock.notifyAll();
+		}
+
+		if (pattern == null) {
+			Derivation derivation = MelodyGenerator.getGrammar(length)
+					.newDerivation();
+
+			advance(derivation, iterations);
+			pattern = derivation.getCurrentString();
+		}
+
+		return pattern;
+	}
+
+	/**
+	 * Returns the number of patterns which are currently available for the
+	 * given length and number of iterations.
+	 * 
+	 * @param length
+	 *            the length of the phrase, in bars.
+	 * @param iterations
+	 *            the number of iterations of the melody system.
+	 * @return the number of patterns available.
+	 * @throws IllegalArgumentException
+	 *             if the pool does not hold patterns for the given length and
+	 *             number of iterations.
+	 */
+	public int available(int length, int iterations) {
+		return queues.get(getQueueIndex(length, iterations)).size();
+	}
+
+	/**
+	 * Returns the number of patterns which the workers keep in the queue of
+	 * each combination of length and number of iterations.
+	 * 
+	 * @return the depth of each queue.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Raises the number of patterns which the workers keep in the queue of
+	 * each combination of length and number of iterations, if it is lower
+	 * than the given depth. The workers start filling the queues up to the
+	 * new depth straight away.
+	 * 
+	 * @param depth
+	 *            the number of patterns which should be kept in each queue.
+	 */
+	public void ensureDepth(int depth) {
+		synchronized (refillLock) {
+			if (depth > this.depth) {
+				this.depth = depth;
+				refillRequested = true;
+				refillLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stops the workers. Patterns which are still in the pool can be taken,
+	 * but the pool is no longer refilled.
+	 */
+	public void shutDown() {
+		synchronized (refillLock) {
+			shutDown = true;
+			refillLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until patterns are taken from the pool, or it is shut down.
+	 * 
+	 * @return false if the pool was shut down.
+	 * @throws InterruptedException
+	 *             if the worker is interrupted while waiting.
+	 */
+	private boolean awaitRefill() throws InterruptedException {
+		synchronized (refillLock) {
+			while (!refillRequested && !shutDown) {
+				refillLock.wait();
+			}
+
+			refillRequested = false;
+
+			return !shutDown;
+		}
+	}
+
+	/**
+	 * Returns the number of iterations which the patterns added for the same
+	 * length in a single pass share, before they branch.
+	 * 
+	 * @return the number of shared iterations.
+	 */
+	private int getSharedIterations() {
+		return Math.min(
+				StructuredPolyphonicLSystemNotator.SHARED_MELODY_ITERATIONS,
+				minIterations);
+	}
+
+	/**
+	 * Advances the given derivation until the given number of iterations is
+	 * reached.
+	 * 
+	 * @param derivation
+	 *            the derivation which will be advanced.
+	 * @param iterations
+	 *            the number of iterations to reach.
+	 */
+	private static void advance(Derivation derivation,
+			int iterations) {
+		while (derivation.getGeneration() < iterations) {
+			derivation.advance();
+		}
+	}
+
+	/**
+	 * Returns the index of the queue for the given length and number of
+	 * iterations.
+	 * 
+	 * @param length
+	 *            the length of the phrase, in bars.
+	 * @param iterations
+	 *            the number of iterations of the melody system.
+	 * @return the index of the queue.
+	 * @throws IllegalArgumentException
+	 *             if the pool does not hold patterns for the given length and
+	 *             number of iterations.
+	 */
+	private int getQueueIndex(int length, int iterations) {
+		if (length < minLength || length > maxLength
+				|| iterations < minIterations || iterations > maxIterations) {
+			throw new IllegalArgumentException("No patterns are pooled for "
+					+ length + " bars and " + iterations + " iterations.");
+		}
+
+		return (length - minLength) * (maxIterations - minIterations + 1)
+				+ iterations - minIterations;
+	}
+}
@@ -0,0 +1,325 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Chooses the melodic pattern of a voice from a number of candidates, by
+ * scoring each one against the harmony of its phrase.
+ * 
+ * The score of a candidate is the sum, over its notes, of the consonance of
+ * each note with the tonic of the key, as given by the consonance profile of
+ * the scale, multiplied by the duration of the note. Every tatum of a note
+ * which falls outside the range of the voice costs {@link #RANGE_PENALTY}
+ * instead. The candidates are taken and scored in parallel, and the one with
+ * the highest score is kept.
+ * 
+ * The notes of a candidate are scored in order, and a candidate is abandoned
+ * as soon as it could no longer beat the best score found so far, even if all
+ * of its remaining tatums were as consonant as possible.
+ */
+public class MelodySearch {
+	/**
+	 * The cost of each tatum of a note which falls outside the range of its
+	 * voice.
+	 */
+	public static final int RANGE_PENALTY = 8;
+	/**
+	 * The number of semitones, starting from the lowest note of the octave of
+	 * a voice, which the voice can cover.
+	 */
+	public static final int VOICE_RANGE = 2 * Chord.NOTES_IN_AN_OCTAVE;
+	/**
+	 * The score of a candidate which was abandoned.
+	 */
+	private static final long ABANDONED = Long.MIN_VALUE;
+
+	/**
+	 * The source of the candidates.
+	 */
+	private final MelodyPatternSource source;
+	/**
+	 * The number of candidates considered for each voice.
+	 */
+	private final int candidateCount;
+	/**
+	 * The pool which takes and scores the candidates.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * The best candidate found by a single search.
+	 */
+	static class Best {
+		/**
+		 * The best candidate so far, or null if none has been scored.
+		 */
+		public MelodicPattern pattern;
+		/**
+		 * The score of the best candidate so far. The candidates which are
+		 * still being scored read it without locking, to decide whether they
+		 * should be abandoned.
+		 */
+		public volatile long score = ABANDONED;
+
+		/**
+		 * Keeps the given candidate if it is better than the best one so far.
+		 * 
+		 * @param candidate
+		 *            the candidate.
+		 * @param candidateScore
+		 *            the score of the candidate.
+		 */
+		public synchronized void offer(MelodicPattern candidate,
+				long candidateScore) {
+			if (pattern == null || candidateScore > score) {
+				pattern = candidate;
+				score = candidateScore;
+			}
+		}
+	}
+
+	/**
+	 * Takes a single candidate, and scores it.
+	 */
+	private class Candidate extends RecursiveAction {
+		/**
+		 * The serial version UID of this class.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The length of the phrase, in bars.
+		 */
+		private final int length;
+		/**
+		 * The number of iterations of the melody system.
+		 */
+		private final int iterations;
+		/**
+		 * The chord for each crochet of the phrase.
+		 */
+		private final Chord[] harmonicPattern;
+		/**
+		 * The MIDI note of the tonic of the key.
+		 */
+		private final int tonic;
+		/**
+		 * The consonance profile of the scale of the key.
+		 */
+		private final int[] consonanceProfile;
+		/**
+		 * The octave of the voice.
+		 */
+		private final int octave;
+		/**
+		 * The best candidate of the search.
+		 */
+		private final Best best;
+
+		/**
+		 * 
+		 * @param length
+		 *            the length of the phrase, in bars.
+		 * @param iterations
+		 *            the number of iterations of the melody system.
+		 * @param harmonicPattern
+		 *            the chord for each crochet of the phrase.
+		 * @param tonic
+		 *            the MIDI note of the tonic of the key.
+		 * @param consonanceProfile
+		 *            the consonance profile of the scale of the key.
+		 * @param octave
+		 *            the octave of the voice.
+		 * @param best
+		 *            the best candidate of the search.
+		 */
+		public Candidate(int length, int iterations, Chord[] harmonicPattern,
+				int tonic, int[] consonanceProfile, int octave, Best best) {
+			this.length = length;
+			this.iterations = iterations;
+			this.harmonicPattern = harmonicPattern;
+			this.tonic = tonic;
+			this.consonanceProfile = consonanceProfile;
+			this.octave = octave;
+			this.best = best;
+		}
+
+		@Override
+		protected void compute() {
+			MelodicPattern pattern = MelodicPattern.compile(source.take(
+					length, iterations));
+			long score = score(pattern, harmonicPattern, tonic,
+					consonanceProfile, octave, best);
+
+			if (score != ABANDONED) {
+				best.offer(pattern, score);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param source
+	 *            the source of the candidates.
+	 * @param candidateCount
+	 *            the number of candidates considered for each voice.
+	 * @param pool
+	 *            the pool which takes and scores the candidates.
+	 * @throws IllegalArgumentException
+	 *             if the number of candidates is not positive.
+	 */
+	public MelodySearch(MelodyPatternSource source, int candidateCount,
+			ForkJoinPool pool) {
+		if (candidateCount < 1) {
+			throw new IllegalArgumentException(
+					"At least one candidate is needed.");
+		}
+
+		this.source = source;
+		this.candidateCount = candidateCount;
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the best of a number of candidate patterns for a voice.
+	 * 
+	 * @param length
+	 *            the length of the phrase, in bars.
+	 * @param iterations
+	 *            the number of iterations of the melody system.
+	 * @param harmonicPattern
+	 *            the chord for each crochet of the phrase.
+	 * @param tonic
+	 *            the tonic of the key.
+	 * @param scale
+	 *            the scale of the key.
+	 * @param octave
+	 *            the octave of the voice.
+	 * @return the candidate with the highest score.
+	 */
+	public MelodicPattern search(int length, int iterations,
+			Chord[] harmonicPattern, Note tonic, Scale scale, int octave) {
+		final Best best = new Best();
+		final ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+
+		for (int candidateIndex = 0; candidateIndex < candidateCount; candidateIndex++) {
+			candidates.add(new Candidate(length, iterations, harmonicPattern,
+					tonic.getMidiNote(), scale.getConsonanceProfile(), octave,
+					best));
+		}
+
+		// Take and score the candidates in parallel. If the search is
+		// already running in the pool, the candidates are forked from the
+		// current task instead of being submitted again.
+		if (ForkJoinTask.getPool() == pool) {
+			ForkJoinTask.invokeAll(candidates);
+		} else {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(candidates);
+				}
+			});
+		}
+
+		return best.pattern;
+	}
+
+	/**
+	 * Returns the score of the given pattern, or {@link #ABANDONED} if it
+	 * cannot be greater than the score of the best candidate. The score of the
+	 * best candidate is read again after every note, so the pattern is
+	 * abandoned as soon as a candidate which is scored at the same time beats
+	 * it.
+	 * 
+	 * @param pattern
+	 *            the pattern which is scored.
+	 * @param harmonicPattern
+	 *            the chord for each crochet of the phrase.
+	 * @param tonic
+	 *            the MIDI note of the tonic of the key.
+	 * @param consonanceProfile
+	 *            the consonance profile of the scale of the key.
+	 * @param octave
+	 *            the octave of the voice.
+	 * @param best
+	 *            the best candidate of the search, whose score the pattern has
+	 *            to beat.
+	 * @return the score of the pattern, or {@link #ABANDONED}.
+	 */
+	static long score(MelodicPattern pattern, Chord[] harmonicPattern,
+			int tonic, int[] consonanceProfile, int octave, Best best) {
+		// The highest consonance which a single tatum can have.
+		int maxConsonance = Integer.MIN_VALUE;
+
+		for (int consonance : consonanceProfile) {
+			maxConsonance = Math.max(maxConsonance, consonance);
+		}
+
+		int lowestNote = octave * Chord.NOTES_IN_AN_OCTAVE;
+		long score = 0;
+
+		for (int noteIndex = 0; noteIndex < pattern.getNoteCount(); noteIndex++) {
+			int start = pattern.getStart(noteIndex);
+			int duration = pattern.getDuration(noteIndex);
+			int note = harmonicPattern[start / StructuredPolyphonicLSystemNotator.CROCHET_LENGTH]
+					.getMidiNote(pattern.getDegree(noteIndex), octave);
+
+			if (note < lowestNote || note >= lowestNote + VOICE_RANGE) {
+				score -= (long) RANGE_PENALTY * duration;
+			} else {
+				int interval = (note - tonic) % Chord.NOTES_IN_AN_OCTAVE;
+
+				if (interval < 0) {
+					interval += Chord.NOTES_IN_AN_OCTAVE;
+				}
+
+				score += (long) consonanceProfile[interval] * duration;
+			}
+
+			// Abandon the pattern if it cannot beat the best candidate, even
+			// if the rest of it is as consonant as possible.
+			long remaining = pattern.getLength() - start - duration;
+
+			if (score + remaining * maxConsonance <= best.score) {
+				return ABANDONED;
+			}
+		}
+
+		return score;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+
+/**
+ * A random number generator whose output is determined entirely by a seed and
+ * a position.
+ * 
+ * Before a production is selected for a position in a source string, the
+ * generator is moved to that position. The numbers it then produces only depend
+ * on the seed and on the position, and not on how many numbers were drawn
+ * before. Therefore the same string is produced for a given seed, no matter
+ * how the source string is split between threads.
+ * 
+ * The numbers are generated with the SplitMix64 algorithm, which mixes a
+ * counter with a fixed sequence of multiplications and shifts.
+ */
+class PositionalRandom extends Random {
+	/**
+	 * The serial version UID of this class.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The increment applied to the state of the generator for each number
+	 * drawn (the golden ratio, as a 64 bit fraction).
+	 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * The seed of this generator.
+	 */
+	private long positionalSeed;
+	/**
+	 * The state of this generator.
+	 */
+	private long state;
+
+	/**
+	 * 
+	 * @param seed
+	 *            the seed of this generator.
+	 */
+	public PositionalRandom(long seed) {
+		this.positionalSeed = mix(seed);
+		setPosition(0);
+	}
+
+	/**
+	 * Moves this generator to the given position.
+	 * 
+	 * @param position
+	 *            the position in the source string.
+	 */
+	public void setPosition(long position) {
+		state = mix(positionalSeed + position * GOLDEN_GAMMA);
+	}
+
+	@Override
+	protected int next(int bits) {
+		state += GOLDEN_GAMMA;
+
+		return (int) (mix(state) >>> (64 - bits));
+	}
+
+	/**
+	 * Mixes the bits of the given value, so that values which are close
+	 * together give results which appear unrelated.
+	 * 
+	 * @param value
+	 *            the value which will be mixed.
+	 * @return the mixed value.
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+
+		return value ^ (value >>> 31);
+	}
+}
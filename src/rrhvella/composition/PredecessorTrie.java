@@ -0,0 +1,874 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * A trie over the contexts of the predecessors of a context-sensitive
+ * stochastic L-system.
+ * 
+ * A predecessor is stored at the node which is reached by walking its entire
+ * context, starting from the root. Therefore, the predecessors which fit the
+ * context starting from a character in a source string are exactly those
+ * stored at the nodes visited while walking the source string from that
+ * character. This means that each position in the source string only has to
+ * look at the productions which can actually match it.
+ * 
+ * The trie is compiled once for each grammar, and is stored as a set of flat
+ * arrays. Each node is identified by its index, and its edges are sorted by
+ * symbol, so that the child of a node can be found with a binary search.
+ * 
+ * Since the set of valid productions at a position only depends on the
+ * deepest node reached along the source string, each node also stores this
+ * candidate set, along with the successor of each candidate and an alias
+ * table which selects one of them according to their probabilities. Therefore
+ * selecting a production at any position does not allocate any memory.
+ * 
+ * Long strings can also be matched a block of {@link #BLOCK_LENGTH} positions
+ * at a time. Instead of walking the trie from every position, the positions of
+ * the block which reach each node are found as a bitmask, which is the mask of
+ * the node's parent, restricted to the positions followed by the symbol of the
+ * node's edge. The symbols of the block are compared with that symbol four at
+ * a time, packed into the 16-bit lanes of a long, so the mask of a node is
+ * found with a few word operations, rather than a branch for every position.
+ */
+class PredecessorTrie implements ContextMatcher {
+	/**
+	 * The index of the root node.
+	 */
+	public static final int ROOT = 0;
+	/**
+	 * The index returned when a node does not have a child for a symbol.
+	 */
+	public static final int NO_NODE = -1;
+	/**
+	 * The number of positions matched at once by
+	 * {@link BlockMatcher}, one for each bit
+	 * of a mask.
+	 */
+	public static final int BLOCK_LENGTH = 64;
+	/**
+	 * The number of symbols which are packed into a single long, when the
+	 * symbols of a block are compared at once.
+	 */
+	private static final int LANES = 4;
+	/**
+	 * Every bit of each 16-bit lane, except for the highest one.
+	 */
+	private static final long LANE_LOW_BITS = 0x7FFF7FFF7FFF7FFFL;
+	/**
+	 * The lowest bit of each 16-bit lane.
+	 */
+	private static final long LANE_ONES = 0x0001000100010001L;
+	/**
+	 * The multiplier which gathers the highest bit of each 16-bit lane,
+	 * shifted down to the lowest bit, into four consecutive bits starting from
+	 * {@link #LANE_GATHER_SHIFT}.
+	 */
+	private static final long LANE_GATHER = 0x0000200040008001L;
+	/**
+	 * The position of the gathered lane bits.
+	 */
+	private static final int LANE_GATHER_SHIFT = 45;
+	/**
+	 * The number of positions below which the positions of a mask are
+	 * compared one at a time, rather than four at a time.
+	 */
+	private static final int SPARSE_MASK_POSITIONS = 8;
+
+	/**
+	 * The index of the first edge of each node. The edges of node n are found
+	 * between edgeOffsets[n] (inclusive) and edgeOffsets[n + 1] (exclusive).
+	 */
+	private int[] edgeOffsets;
+	/**
+	 * The symbol of each edge.
+	 */
+	private char[] edgeSymbols;
+	/**
+	 * The node which each edge leads to.
+	 */
+	private int[] edgeTargets;
+	/**
+	 * The index of the first predecessor of each node. The predecessors of
+	 * node n are found between predecessorOffsets[n] (inclusive) and
+	 * predecessorOffsets[n + 1] (exclusive).
+	 */
+	private int[] predecessorOffsets;
+	/**
+	 * The predecessors stored in this trie, grouped by node.
+	 */
+	private ContextSensitiveNonDeterministicPredecessor[] predecessors;
+	/**
+	 * The index of the first candidate of each node. The candidates of node n
+	 * are found between candidateOffsets[n] (inclusive) and
+	 * candidateOffsets[n + 1] (exclusive). The candidates of a node are the
+	 * predecessors stored at that node, and at all of its ancestors.
+	 */
+	private int[] candidateOffsets;
+	/**
+	 * The candidates of every node, grouped by node.
+	 */
+	private ContextSensitiveNonDeterministicPredecessor[] candidates;
+	/**
+	 * The successor of each candidate.
+	 */
+	private char[][] candidateSuccessors;
+	/**
+	 * The context which precedes the letter of each candidate.
+	 */
+	private char[][] candidatePrecedingContexts;
+	/**
+	 * The context which follows the letter of each candidate.
+	 */
+	private char[][] candidateProceedingContexts;
+	/**
+	 * The table which selects a candidate for each node, according to the
+	 * probability of each candidate. This is null for the nodes which do not
+	 * have any candidates.
+	 */
+	private AliasTable[] candidateSelectors;
+	/**
+	 * The length of the longest context in this trie.
+	 */
+	private int maxContextLength;
+	/**
+	 * The depth of each node, which is the length of the context walked to
+	 * reach it.
+	 */
+	private int[] nodeDepths;
+
+	/**
+	 * A node of the trie while it is being built.
+	 */
+	private static class NodeBuilder {
+		/**
+		 * The children of this node, sorted by symbol.
+		 */
+		public TreeMap<Character, NodeBuilder> children = new TreeMap<Character, NodeBuilder>();
+		/**
+		 * The predecessors whose context ends at this node.
+		 */
+		public ArrayList<ContextSensitiveNonDeterministicPredecessor> predecessors = new ArrayList<ContextSensitiveNonDeterministicPredecessor>();
+		/**
+		 * The candidates of this node.
+		 */
+		public ArrayList<ContextSensitiveNonDeterministicPredecessor> candidates = new ArrayList<ContextSensitiveNonDeterministicPredecessor>();
+		/**
+		 * The index assigned to this node once the trie is flattened.
+		 */
+		public int index;
+	}
+
+	/**
+	 * 
+	 * @param productions
+	 *            the productions whose predecessors will be stored in this
+	 *            trie, as a dictionary which maps a predecessor to its
+	 *            successor.
+	 */
+	public PredecessorTrie(
+			HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions) {
+		// Build the trie by walking the context of each predecessor from the
+		// root, creating the nodes which do not exist yet.
+		NodeBuilder root = new NodeBuilder();
+		int nodeCount = 1;
+
+		for (ContextSensitiveNonDeterministicPredecessor predecessor : productions
+				.keySet()) {
+			NodeBuilder node = root;
+			String context = predecessor.getContext();
+
+			for (int charIndex = 0; charIndex < context.length(); charIndex++) {
+				NodeBuilder child = node.children.get(context.charAt(charIndex));
+
+				if (child == null) {
+					child = new NodeBuilder();
+					node.children.put(context.charAt(charIndex), child);
+					nodeCount++;
+				}
+
+				node = child;
+			}
+
+			node.predecessors.add(predecessor);
+			maxContextLength = Math.max(maxContextLength, context.length());
+		}
+
+		// Flatten the trie in breadth-first order, so that the root is given
+		// the index 0.
+		edgeOffsets = new int[nodeCount + 1];
+		edgeSymbols = new char[nodeCount - 1];
+		edgeTargets = new int[nodeCount - 1];
+		predecessorOffsets = new int[nodeCount + 1];
+		predecessors = new ContextSensitiveNonDeterministicPredecessor[productions
+				.size()];
+		candidateOffsets = new int[nodeCount + 1];
+		candidateSelectors = new AliasTable[nodeCount];
+
+		ArrayList<ContextSensitiveNonDeterministicPredecessor> candidateList = new ArrayList<ContextSensitiveNonDeterministicPredecessor>();
+		LinkedList<NodeBuilder> queue = new LinkedList<NodeBuilder>();
+		int nextIndex = 1;
+		int edgeIndex = 0;
+		int predecessorIndex = 0;
+
+		queue.add(root);
+
+		while (!queue.isEmpty()) {
+			NodeBuilder node = queue.poll();
+
+			// The candidates of this node are the candidates of its parent,
+			// followed by its own predecessors.
+			node.candidates.addAll(node.predecessors);
+
+			// Store the edges of this node, and assign an index to each child
+			// in the order in which it will be visited.
+			edgeOffsets[node.index] = edgeIndex;
+
+			for (Character symbol : node.children.keySet()) {
+				NodeBuilder child = node.children.get(symbol);
+				child.index = nextIndex++;
+
+				edgeSymbols[edgeIndex] = symbol;
+				edgeTargets[edgeIndex] = child.index;
+				edgeIndex++;
+
+				// The candidates of the child start with the candidates of
+				// this node.
+				child.candidates.addAll(node.candidates);
+
+				queue.add(child);
+			}
+
+			// Store the predecessors of this node.
+			predecessorOffsets[node.index] = predecessorIndex;
+
+			for (ContextSensitiveNonDeterministicPredecessor predecessor : node.predecessors) {
+				predecessors[predecessorIndex++] = predecessor;
+			}
+
+			// Store the candidates of this node, and build the table which
+			// selects one of them.
+			candidateOffsets[node.index] = candidateList.size();
+			candidateList.addAll(node.candidates);
+
+			if (!node.candidates.isEmpty()) {
+				int[] weights = new int[node.candidates.size()];
+
+				for (int candidateIndex = 0; candidateIndex < weights.length; candidateIndex++) {
+					weights[candidateIndex] = node.candidates.get(
+							candidateIndex).getProbability();
+				}
+
+				candidateSelectors[node.index] = new AliasTable(weights);
+			}
+		}
+
+		edgeOffsets[nodeCount] = edgeIndex;
+		predecessorOffsets[nodeCount] = predecessorIndex;
+		candidateOffsets[nodeCount] = candidateList.size();
+
+		// Store the candidates along with their successors.
+		candidates = candidateList
+				.toArray(new ContextSensitiveNonDeterministicPredecessor[candidateList
+						.size()]);
+		candidateSuccessors = new char[candidates.length][];
+		candidatePrecedingContexts = new char[candidates.length][];
+		candidateProceedingContexts = new char[candidates.length][];
+
+		for (int candidateIndex = 0; candidateIndex < candidates.length; candidateIndex++) {
+			ContextSensitiveNonDeterministicPredecessor candidate = candidates[candidateIndex];
+
+			candidateSuccessors[candidateIndex] = productions.get(candidate)
+					.toCharArray();
+			candidatePrecedingContexts[candidateIndex] = candidate
+					.getPrecedingContext().toCharArray();
+			candidateProceedingContexts[candidateIndex] = candidate
+					.getProceedingContext().toCharArray();
+		}
+
+		nodeDepths = computeNodeDepths();
+	}
+
+	/**
+	 * Creates a trie from the arrays of a trie which has already been
+	 * compiled, for example one which has been read from a file.
+	 * 
+	 * @param edgeOffsets
+	 *            the index of the first edge of each node, followed by the
+	 *            number of edges.
+	 * @param edgeSymbols
+	 *            the symbol of each edge.
+	 * @param edgeTargets
+	 *            the node which each edge leads to.
+	 * @param predecessorOffsets
+	 *            the index of the first predecessor of each node, followed by
+	 *            the number of predecessors.
+	 * @param predecessors
+	 *            the predecessors, grouped by node.
+	 * @param candidateOffsets
+	 *            the index of the first candidate of each node, followed by
+	 *            the number of candidates.
+	 * @param candidates
+	 *            the candidates of every node, grouped by node.
+	 * @param candidateSuccessors
+	 *            the successor of each candidate.
+	 * @param candidateSelectors
+	 *            the table which selects a candidate for each node, or null
+	 *            for the nodes without candidates.
+	 * @param maxContextLength
+	 *            the length of the longest context in the trie.
+	 */
+	PredecessorTrie(int[] edgeOffsets, char[] edgeSymbols, int[] edgeTargets,
+			int[] predecessorOffsets,
+			ContextSensitiveNonDeterministicPredecessor[] predecessors,
+			int[] candidateOffsets,
+			ContextSensitiveNonDeterministicPredecessor[] candidates,
+			char[][] candidateSuccessors, AliasTable[] candidateSelectors,
+			int maxContextLength) {
+		this.edgeOffsets = edgeOffsets;
+		this.edgeSymbols = edgeSymbols;
+		this.edgeTargets = edgeTargets;
+		this.predecessorOffsets = predecessorOffsets;
+		this.predecessors = predecessors;
+		this.candidateOffsets = candidateOffsets;
+		this.candidates = candidates;
+		this.candidateSuccessors = candidateSuccessors;
+		this.candidateSelectors = candidateSelectors;
+		this.maxContextLength = maxContextLength;
+
+		// The contexts of the candidates are taken from the predecessors.
+		candidatePrecedingContexts = new char[candidates.length][];
+		candidateProceedingContexts = new char[candidates.length][];
+
+		for (int candidateIndex = 0; candidateIndex < candidates.length; candidateIndex++) {
+			candidatePrecedingContexts[candidateIndex] = candidates[candidateIndex]
+					.getPrecedingContext().toCharArray();
+			candidateProceedingContexts[candidateIndex] = candidates[candidateIndex]
+					.getProceedingContext().toCharArray();
+		}
+
+		nodeDepths = computeNodeDepths();
+	}
+
+	/**
+	 * Returns the depth of each node. The nodes are numbered in breadth-first
+	 * order, so the parent of a node always comes before it.
+	 * 
+	 * @return the depth of each node.
+	 */
+	private int[] computeNodeDepths() {
+		int nodeCount = edgeOffsets.length - 1;
+		int[] depths = new int[nodeCount];
+
+		for (int node = 0; node < nodeCount; node++) {
+			for (int edgeIndex = edgeOffsets[node]; edgeIndex < edgeOffsets[node + 1]; edgeIndex++) {
+				depths[edgeTargets[edgeIndex]] = depths[node] + 1;
+			}
+		}
+
+		return depths;
+	}
+
+	/**
+	 * Returns the deepest node with at least one candidate, which is reached by
+	 * walking the given symbols starting from charIndex. If no such node
+	 * exists, then no production fits the context starting from charIndex, and
+	 * {@link #NO_NODE} is returned.
+	 * 
+	 * @param source
+	 *            the symbols which are being matched.
+	 * @param sourceLength
+	 *            the number of symbols in the source array.
+	 * @param charIndex
+	 *            the index which is mapped to the beginning of the context.
+	 * @return the deepest node with at least one candidate, or
+	 *         {@link #NO_NODE}.
+	 */
+	@Override
+	public int match(char[] source, int sourceLength, int charIndex) {
+		int node = ROOT;
+		int matchedNode = NO_NODE;
+
+		for (int contextIndex = charIndex; contextIndex < sourceLength; contextIndex++) {
+			node = getChild(node, source[contextIndex]);
+
+			// If no context continues with this character, then no deeper
+			// node can be reached.
+			if (node == NO_NODE) {
+				break;
+			}
+
+			// Record the node if any production can be applied through it.
+			if (candidateSelectors[node] != null) {
+				matchedNode = node;
+			}
+		}
+
+		return matchedNode;
+	}
+
+	/**
+	 * Returns a new matcher, which finds the nodes of this trie reached from a
+	 * block of positions at a time. A block matcher holds the masks of the
+	 * block which is being matched, so each thread needs its own.
+	 * 
+	 * @return a new block matcher.
+	 */
+	BlockMatcher newBlockMatcher() {
+		return new BlockMatcher();
+	}
+
+	/**
+	 * Finds the node which {@link PredecessorTrie#match(char[], int, int)}
+	 * returns for each position of a block of {@link #BLOCK_LENGTH}
+	 * consecutive positions.
+	 * 
+	 * The nodes are visited in breadth-first order, so that the mask of each
+	 * node is found from the mask of its parent, and the symbols of a node's
+	 * edges are only compared if at least one position of the block reaches
+	 * the node. Since the deeper nodes are visited last, the node recorded for
+	 * each position is the deepest one with at least one candidate.
+	 * 
+	 * The symbols which follow the block at each depth are packed into lanes
+	 * once, the first time an edge at that depth is compared, and are then
+	 * compared with the symbol of every edge at that depth.
+	 */
+	class BlockMatcher {
+		/**
+		 * The mask of the positions of the block which reach each node.
+		 */
+		private long[] nodeMasks = new long[nodeDepths.length];
+		/**
+		 * The node reached by each position of the block, or
+		 * {@link PredecessorTrie#NO_NODE}.
+		 */
+		private int[] matchedNodes = new int[BLOCK_LENGTH];
+		/**
+		 * The symbols which follow the block at each depth, packed four to a
+		 * long.
+		 */
+		private long[][] packedSymbols = new long[maxContextLength + 1][BLOCK_LENGTH
+				/ LANES];
+		/**
+		 * The depth up to which the symbols of the current block have been
+		 * packed.
+		 */
+		private int packedDepth;
+
+		/**
+		 * Matches the block which starts at the given position.
+		 * 
+		 * @param source
+		 *            the symbols which are being matched.
+		 * @param sourceLength
+		 *            the number of symbols in the source array.
+		 * @param start
+		 *            the first position of the block.
+		 */
+		public void match(char[] source, int sourceLength, int start) {
+			int positions = Math.min(BLOCK_LENGTH, sourceLength - start);
+
+			Arrays.fill(matchedNodes, 0, positions, NO_NODE);
+			nodeMasks[ROOT] = positions == BLOCK_LENGTH ? -1L
+					: (1L << positions) - 1;
+			packedDepth = -1;
+
+			for (int node = ROOT; node < nodeDepths.length; node++) {
+				long mask = nodeMasks[node];
+
+				// Record the node for the positions which reach it, if any
+				// production can be applied through it.
+				if (node != ROOT && candidateSelectors[node] != null) {
+					for (long bits = mask; bits != 0; bits &= bits - 1) {
+						matchedNodes[Long.numberOfTrailingZeros(bits)] = node;
+					}
+				}
+
+				// The depth of the symbols which follow the context of this
+				// node, and the number of positions for which that symbol is
+				// within the source.
+				int depth = nodeDepths[node];
+				int count = Math.min(positions, sourceLength - start - depth);
+
+				if (count <= 0) {
+					mask = 0;
+				} else if (count < BLOCK_LENGTH) {
+					mask &= (1L << count) - 1;
+				}
+
+				for (int edgeIndex = edgeOffsets[node]; edgeIndex < edgeOffsets[node + 1]; edgeIndex++) {
+					nodeMasks[edgeTargets[edgeIndex]] = mask == 0 ? 0
+							: equalityMask(source, start, depth, count, mask,
+									edgeSymbols[edgeIndex]);
+				}
+			}
+		}
+
+		/**
+		 * Returns the node reached from the given position of the block which
+		 * was matched last.
+		 * 
+		 * @param offset
+		 *            the position, relative to the start of the block.
+		 * @return the deepest node with at least one candidate, or
+		 *         {@link PredecessorTrie#NO_NODE}.
+		 */
+		public int getNode(int offset) {
+			return matchedNodes[offset];
+		}
+
+		/**
+		 * Returns the positions of the given mask whose symbol, at the given
+		 * depth, is equal to the given symbol.
+		 * 
+		 * @param source
+		 *            the symbols which are being matched.
+		 * @param start
+		 *            the first position of the block.
+		 * @param depth
+		 *            the offset of the symbols which are compared from the
+		 *            positions of the block.
+		 * @param count
+		 *            the number of positions whose symbol at the given depth
+		 *            is within the source.
+		 * @param positions
+		 *            the mask of the positions which are compared.
+		 * @param symbol
+		 *            the symbol which is being looked for.
+		 * @return the positions of the mask which are followed by the given
+		 *         symbol.
+		 */
+		private long equalityMask(char[] source, int start, int depth,
+				int count, long positions, char symbol) {
+			int from = start + depth;
+			long mask = 0;
+
+			// If only a few positions have to be compared, compare them one
+			// at a time.
+			if (Long.bitCount(positions) < SPARSE_MASK_POSITIONS) {
+				for (long bits = positions; bits != 0; bits &= bits - 1) {
+					int offset = Long.numberOfTrailingZeros(bits);
+
+					if (source[from + offset] == symbol) {
+						mask |= 1L << offset;
+					}
+				}
+
+				return mask;
+			}
+
+			// Pack the symbols at this depth, unless they have been packed
+			// already. The nodes are visited in breadth-first order, so the
+			// depth never decreases.
+			long[] lanes = packedSymbols[depth];
+			int words = count / LANES;
+
+			if (packedDepth < depth) {
+				for (int word = 0; word < words; word++) {
+					int position = from + word * LANES;
+
+					lanes[word] = source[position]
+							| ((long) source[position + 1] << 16)
+							| ((long) source[position + 2] << 32)
+							| ((long) source[position + 3] << 48);
+				}
+
+				packedDepth = depth;
+			}
+
+			long pattern = symbol * LANE_ONES;
+
+			// Compare the symbols four at a time.
+			for (int word = 0; word < words; word++) {
+				// Lanes equal to the symbol become zero. The highest bit of a
+				// lane is then set if and only if the lane is zero.
+				long difference = lanes[word] ^ pattern;
+				long zeroLanes = ~(((difference & LANE_LOW_BITS) + LANE_LOW_BITS)
+						| difference | LANE_LOW_BITS);
+
+				// Gather the highest bit of each lane into four consecutive
+				// bits.
+				long laneBits = ((zeroLanes >>> 15) * LANE_GATHER) >>> LANE_GATHER_SHIFT & 0xF;
+
+				mask |= laneBits << (word * LANES);
+			}
+
+			// Compare the remaining symbols one at a time.
+			for (int offset = words * LANES; offset < count; offset++) {
+				if (source[from + offset] == symbol) {
+					mask |= 1L << offset;
+				}
+			}
+
+			return mask & positions;
+		}
+	}
+
+	/**
+	 * Randomly selects one of the candidates of the given node, according to
+	 * their probabilities, and returns its index.
+	 * 
+	 * @param node
+	 *            the node whose candidates will be selected from. This node
+	 *            must have at least one candidate.
+	 * @param randomGenerator
+	 *            the random number generator used to make the selection.
+	 * @return the index of the selected candidate.
+	 * @see PredecessorTrie#getCandidate(int)
+	 */
+	public int selectCandidate(int node, Random randomGenerator) {
+		return candidateOffsets[node]
+				+ candidateSelectors[node].select(randomGenerator);
+	}
+
+	/**
+	 * Returns the candidate at the given index.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate.
+	 * @return the candidate at the given index.
+	 */
+	public ContextSensitiveNonDeterministicPredecessor getCandidate(
+			int candidateIndex) {
+		return candidates[candidateIndex];
+	}
+
+	/**
+	 * Returns the number of candidates of all the nodes.
+	 * 
+	 * @return the number of candidates of all the nodes.
+	 */
+	public int getCandidateCount() {
+		return candidates.length;
+	}
+
+	/**
+	 * Returns the start of the candidates of the given node.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return the index of the first candidate of the given node.
+	 */
+	public int getCandidateStart(int node) {
+		return candidateOffsets[node];
+	}
+
+	/**
+	 * Returns the table which selects a candidate for the given node.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return the table which selects a candidate for the given node, or null
+	 *         if the node does not have any candidates.
+	 */
+	public AliasTable getCandidateSelector(int node) {
+		return candidateSelectors[node];
+	}
+
+	/**
+	 * Returns the successor of the candidate at the given index.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate.
+	 * @return the successor of the candidate at the given index.
+	 */
+	public char[] getCandidateSuccessor(int candidateIndex) {
+		return candidateSuccessors[candidateIndex];
+	}
+
+	/**
+	 * Returns the context which precedes the letter of the candidate at the
+	 * given index.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate.
+	 * @return the context which precedes the letter of the candidate.
+	 */
+	public char[] getCandidatePrecedingContext(int candidateIndex) {
+		return candidatePrecedingContexts[candidateIndex];
+	}
+
+	/**
+	 * Returns the context which follows the letter of the candidate at the
+	 * given index.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate.
+	 * @return the context which follows the letter of the candidate.
+	 */
+	public char[] getCandidateProceedingContext(int candidateIndex) {
+		return candidateProceedingContexts[candidateIndex];
+	}
+
+	/**
+	 * Returns the child of the given node for the given symbol, or
+	 * {@link #NO_NODE} if there is no such child.
+	 * 
+	 * @param node
+	 *            the index of the parent node.
+	 * @param symbol
+	 *            the symbol of the edge which leads to the child.
+	 * @return the index of the child, or {@link #NO_NODE}.
+	 */
+	public int getChild(int node, char symbol) {
+		// Binary search through the sorted edges of the node.
+		int low = edgeOffsets[node];
+		int high = edgeOffsets[node + 1] - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char middleSymbol = edgeSymbols[middle];
+
+			if (middleSymbol < symbol) {
+				low = middle + 1;
+			} else if (middleSymbol > symbol) {
+				high = middle - 1;
+			} else {
+				return edgeTargets[middle];
+			}
+		}
+
+		return NO_NODE;
+	}
+
+	/**
+	 * Returns the index of the first predecessor stored at the given node.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return the index of the first predecessor stored at the given node.
+	 */
+	public int getPredecessorStart(int node) {
+		return predecessorOffsets[node];
+	}
+
+	/**
+	 * Returns the index after the last predecessor stored at the given node.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return the index after the last predecessor stored at the given node.
+	 */
+	public int getPredecessorEnd(int node) {
+		return predecessorOffsets[node + 1];
+	}
+
+	/**
+	 * Returns the predecessor at the given index.
+	 * 
+	 * @param predecessorIndex
+	 *            the index of the predecessor.
+	 * @return the predecessor at the given index.
+	 */
+	public ContextSensitiveNonDeterministicPredecessor getPredecessor(
+			int predecessorIndex) {
+		return predecessors[predecessorIndex];
+	}
+
+	/**
+	 * Returns the number of nodes in this trie.
+	 * 
+	 * @return the number of nodes in this trie.
+	 */
+	public int getNodeCount() {
+		return candidateSelectors.length;
+	}
+
+	/**
+	 * Returns the index of the first edge of the given node.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return the index of the first edge of the given node.
+	 */
+	public int getEdgeStart(int node) {
+		return edgeOffsets[node];
+	}
+
+	/**
+	 * Returns the index after the last edge of the given node.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return the index after the last edge of the given node.
+	 */
+	public int getEdgeEnd(int node) {
+		return edgeOffsets[node + 1];
+	}
+
+	/**
+	 * Returns the symbol of the edge at the given index.
+	 * 
+	 * @param edge
+	 *            the index of the edge.
+	 * @return the symbol of the edge.
+	 */
+	public char getEdgeSymbol(int edge) {
+		return edgeSymbols[edge];
+	}
+
+	/**
+	 * Returns the node which the edge at the given index leads to.
+	 * 
+	 * @param edge
+	 *            the index of the edge.
+	 * @return the node which the edge leads to.
+	 */
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+
+	/**
+	 * Returns true if the given node has at least one candidate.
+	 * 
+	 * @param node
+	 *            the index of the node.
+	 * @return true if the given node has at least one candidate.
+	 */
+	public boolean hasCandidates(int node) {
+		return candidateSelectors[node] != null;
+	}
+
+	/**
+	 * Returns the length of the longest context in this trie.
+	 * 
+	 * @return the length of the longest context in this trie.
+	 */
+	public int getMaxContextLength() {
+		return maxContextLength;
+	}
+}
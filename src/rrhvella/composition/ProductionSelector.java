@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.Random;
+
+/**
+ * Selects the production which is applied at each position, while a string is
+ * rewritten in order, from its first symbol to its last.
+ * 
+ * A grammar creates a new selector for each string which it rewrites, so a
+ * subclass of the selector can carry state from one position to the next, and
+ * only select the productions which are valid given the symbols written so
+ * far. The selector is told about every symbol which is written, whether it
+ * was copied from the source or belongs to a successor. This selector has no
+ * state, and selects from all the candidates of a node, according to their
+ * probabilities.
+ * 
+ * @see Grammar#newSelector()
+ */
+class ProductionSelector {
+	/**
+	 * The value returned by {@link #select(int, Random)} when none of the
+	 * candidates of a node can be selected.
+	 */
+	public static final int NO_CANDIDATE = -1;
+
+	/**
+	 * The trie which holds the candidates of the grammar.
+	 */
+	protected final PredecessorTrie predecessors;
+
+	/**
+	 * 
+	 * @param predecessors
+	 *            the trie which holds the candidates of the grammar.
+	 */
+	public ProductionSelector(PredecessorTrie predecessors) {
+		this.predecessors = predecessors;
+	}
+
+	/**
+	 * Randomly selects one of the candidates of the given node. If none of
+	 * them can be selected, the symbol at the current position is copied
+	 * instead, as if no production fitted its context.
+	 * 
+	 * @param node
+	 *            the node whose candidates will be selected from.
+	 * @param randomGenerator
+	 *            the random number generator used to make the selection.
+	 * @return the index of the selected candidate, or {@link #NO_CANDIDATE}.
+	 */
+	public int select(int node, Random randomGenerator) {
+		return predecessors.selectCandidate(node, randomGenerator);
+	}
+
+	/**
+	 * Called after a symbol of the source has been copied into the result.
+	 * 
+	 * @param symbol
+	 *            the symbol which was copied.
+	 */
+	public void copied(char symbol) {
+	}
+
+	/**
+	 * Called after the given candidate has been applied.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate which was applied.
+	 */
+	public void applied(int candidateIndex) {
+	}
+
+	/**
+	 * Returns true if every production was selected from the candidates which
+	 * are valid at its position. If this is false, the string rewritten has
+	 * no valid descendant.
+	 * 
+	 * @return true if the result of the rewrite is valid.
+	 */
+	public boolean isValid() {
+		return true;
+	}
+}
@@ -0,0 +1,444 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * A derivation whose generations are stored as runs of identical symbols, and
+ * which rewrites whole runs at once.
+ * 
+ * Inside a run which is at least as long as the longest context of the
+ * grammar, every position sees the same symbols ahead of it, so the same node
+ * of the trie is matched at each one. If that node has an identity
+ * production, which rewrites the symbol to itself, the number of consecutive
+ * positions at which it is selected follows a geometric distribution. That
+ * number is drawn at once, and the symbols are copied as a single run, after
+ * which one of the other productions is selected for the next position. The
+ * positions near the end of a run, whose contexts may reach into the next run,
+ * are rewritten one at a time, as usual.
+ * 
+ * Since the draws are memoryless, each generation has exactly the same
+ * distribution as one rewritten symbol by symbol, but the time taken is
+ * proportional to the number of runs and of symbols which actually change.
+ * As with {@link Derivation#derive(int, SymbolBuffer)}, the productions of the
+ * grammar are applied directly, so any additional filtering which a subclass
+ * of the grammar performs on whole generations is not applied.
+ */
+public class RunLengthDerivation {
+	/**
+	 * The productions which can be applied inside a run of a single symbol.
+	 */
+	private static class RunProductions {
+		/**
+		 * The node of the trie which is matched inside the run, or
+		 * {@link PredecessorTrie#NO_NODE} if no production can be applied.
+		 */
+		public int node;
+		/**
+		 * The probability that the production selected at a position inside
+		 * the run leaves the symbol unchanged.
+		 */
+		public double identityProbability;
+		/**
+		 * The candidates of the node which change the symbol.
+		 */
+		public int[] changeCandidates;
+		/**
+		 * The table which selects one of the candidates which change the
+		 * symbol, or null if there are none.
+		 */
+		public AliasTable changeSelector;
+	}
+
+	/**
+	 * The grammar whose productions are applied.
+	 */
+	private Grammar grammar;
+	/**
+	 * The trie over the contexts of the predecessors of the grammar.
+	 */
+	private PredecessorTrie trie;
+	/**
+	 * The random number generator used to select the productions.
+	 */
+	private Random randomGenerator;
+	/**
+	 * The runs of the current generation.
+	 */
+	private RunLengthSymbols currentSymbols;
+	/**
+	 * The runs into which the next generation is written.
+	 */
+	private RunLengthSymbols nextSymbols = new RunLengthSymbols();
+	/**
+	 * The productions which can be applied inside the runs of each symbol,
+	 * found the first time a run of the symbol is rewritten.
+	 */
+	private HashMap<Character, RunProductions> runProductions = new HashMap<Character, RunProductions>();
+	/**
+	 * The number of symbols ahead of a position which may be part of its
+	 * context.
+	 */
+	private int windowLength;
+	/**
+	 * The window into which the symbols near the end of a run are decoded, so
+	 * that they can be rewritten one at a time.
+	 */
+	private char[] window;
+	/**
+	 * The buffer which holds the result of a single production.
+	 */
+	private SymbolBuffer productionResult = new SymbolBuffer();
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the grammar whose productions are applied.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 */
+	public RunLengthDerivation(Grammar grammar, Random randomGenerator) {
+		this.grammar = grammar;
+		this.trie = grammar.getPredecessorTrie();
+		this.randomGenerator = randomGenerator;
+		this.currentSymbols = new RunLengthSymbols(grammar.getAxiom());
+		this.windowLength = Math.max(grammar.getMaxContextLength(), 1);
+		this.window = new char[windowLength];
+	}
+
+	/**
+	 * Returns the grammar whose productions are applied.
+	 * 
+	 * @return the grammar whose productions are applied.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Rewrites the current generation, one run at a time.
+	 */
+	public void advance() {
+		nextSymbols.clear();
+
+		int runIndex = 0;
+		// The position in the current run.
+		long offset = 0;
+
+		while (runIndex < currentSymbols.getRunCount()) {
+			long runLength = currentSymbols.getRunLength(runIndex);
+
+			// The positions before this one only see the symbol of the run
+			// ahead of them.
+			long runBodyEnd = runLength - windowLength + 1;
+
+			if (offset < runBodyEnd) {
+				offset = rewriteRunBody(currentSymbols.getRunSymbol(runIndex),
+						offset, runBodyEnd);
+			} else {
+				offset += rewritePosition(runIndex, offset);
+			}
+
+			// Move on to the run which holds the next position.
+			while (runIndex < currentSymbols.getRunCount()
+					&& offset >= currentSymbols.getRunLength(runIndex)) {
+				offset -= currentSymbols.getRunLength(runIndex);
+				runIndex++;
+			}
+		}
+
+		// Swap the runs.
+		RunLengthSymbols previousSymbols = currentSymbols;
+		currentSymbols = nextSymbols;
+		nextSymbols = previousSymbols;
+	}
+
+	/**
+	 * Rewrites the positions of a run which only see the symbol of the run
+	 * ahead of them.
+	 * 
+	 * @param symbol
+	 *            the symbol of the run.
+	 * @param offset
+	 *            the position in the run from which the rewriting starts.
+	 * @param runBodyEnd
+	 *            the first position in the run which may see the next run.
+	 * @return the position in the run at which the rewriting stopped.
+	 */
+	private long rewriteRunBody(char symbol, long offset, long runBodyEnd) {
+		RunProductions productions = getRunProductions(symbol);
+
+		// If no production can be applied, the symbols are copied unchanged.
+		if (productions.node == PredecessorTrie.NO_NODE) {
+			nextSymbols.appendRun(symbol, runBodyEnd - offset);
+			return runBodyEnd;
+		}
+
+		while (offset < runBodyEnd) {
+			// Draw the number of consecutive positions at which the symbol is
+			// left unchanged, and copy them as a single run.
+			long identities = drawIdentities(
+					productions.identityProbability, runBodyEnd - offset);
+
+			nextSymbols.appendRun(symbol, identities);
+			offset += identities;
+
+			if (offset >= runBodyEnd) {
+				break;
+			}
+
+			// Apply one of the productions which change the symbol.
+			int candidateIndex = productions.changeCandidates[productions.changeSelector
+					.select(randomGenerator)];
+
+			offset += applyCandidate(candidateIndex);
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Rewrites the symbol at the given position on its own, by decoding the
+	 * symbols ahead of it into the window.
+	 * 
+	 * @param runIndex
+	 *            the index of the run which holds the position.
+	 * @param offset
+	 *            the position in the run.
+	 * @return the number of symbols consumed.
+	 */
+	private int rewritePosition(int runIndex, long offset) {
+		int length = 0;
+
+		// Decode the symbols ahead of the position, across the following
+		// runs.
+		while (length < windowLength
+				&& runIndex < currentSymbols.getRunCount()) {
+			long runLength = currentSymbols.getRunLength(runIndex);
+			char symbol = currentSymbols.getRunSymbol(runIndex);
+
+			while (length < windowLength && offset < runLength) {
+				window[length++] = symbol;
+				offset++;
+			}
+
+			runIndex++;
+			offset = 0;
+		}
+
+		productionResult.clear();
+
+		int consumed = grammar.rewrite(window, length, 0, 1,
+				productionResult, randomGenerator);
+
+		nextSymbols.append(productionResult.getSymbols(), 0,
+				productionResult.length());
+
+		return consumed;
+	}
+
+	/**
+	 * Appends the result of the given candidate to the next generation.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate.
+	 * @return the number of symbols consumed.
+	 */
+	private int applyCandidate(int candidateIndex) {
+		char[] successor = trie.getCandidateSuccessor(candidateIndex);
+
+		// If the 'change entire context' flag is true, the entire context is
+		// replaced by the successor. Otherwise, the contexts are kept.
+		if (grammar.isChangeEntireContext()) {
+			nextSymbols.append(successor, 0, successor.length);
+
+			return trie.getCandidate(candidateIndex).getContextLength();
+		}
+
+		char[] precedingContext = trie
+				.getCandidatePrecedingContext(candidateIndex);
+		char[] proceedingContext = trie
+				.getCandidateProceedingContext(candidateIndex);
+
+		nextSymbols.append(precedingContext, 0, precedingContext.length);
+		nextSymbols.append(successor, 0, successor.length);
+		nextSymbols.append(proceedingContext, 0, proceedingContext.length);
+
+		return 1;
+	}
+
+	/**
+	 * Draws the number of consecutive positions at which an identity
+	 * production is selected.
+	 * 
+	 * @param identityProbability
+	 *            the probability of selecting an identity production at each
+	 *            position.
+	 * @param limit
+	 *            the largest number which will be returned.
+	 * @return the number of consecutive identity productions, up to the limit.
+	 */
+	private long drawIdentities(double identityProbability, long limit) {
+		if (identityProbability <= 0) {
+			return 0;
+		}
+
+		if (identityProbability >= 1) {
+			return limit;
+		}
+
+		// Invert the geometric distribution. The number drawn is in (0, 1],
+		// so that its logarithm is never infinite.
+		double draw = 1.0 - randomGenerator.nextDouble();
+		double identities = Math.floor(Math.log(draw)
+				/ Math.log(identityProbability));
+
+		return identities >= limit ? limit : (long) identities;
+	}
+
+	/**
+	 * Returns the productions which can be applied inside a run of the given
+	 * symbol.
+	 * 
+	 * @param symbol
+	 *            the symbol of the run.
+	 * @return the productions which can be applied inside the run.
+	 */
+	private RunProductions getRunProductions(char symbol) {
+		RunProductions productions = runProductions.get(symbol);
+
+		if (productions != null) {
+			return productions;
+		}
+
+		productions = new RunProductions();
+
+		// Find the node which is matched inside the run.
+		for (int charIndex = 0; charIndex < windowLength; charIndex++) {
+			window[charIndex] = symbol;
+		}
+
+		productions.node = trie.match(window, windowLength, 0);
+
+		if (productions.node != PredecessorTrie.NO_NODE) {
+			int start = trie.getCandidateStart(productions.node);
+			int end = trie.getCandidateStart(productions.node + 1);
+			int[] changeCandidates = new int[end - start];
+			int[] changeWeights = new int[end - start];
+			int changeCount = 0;
+			long identityWeight = 0;
+			long changeWeight = 0;
+
+			// Split the candidates into those which leave the symbol
+			// unchanged, and those which do not.
+			for (int candidateIndex = start; candidateIndex < end; candidateIndex++) {
+				int weight = trie.getCandidate(candidateIndex).getProbability();
+
+				if (isIdentity(candidateIndex, symbol)) {
+					identityWeight += weight;
+				} else {
+					changeCandidates[changeCount] = candidateIndex;
+					changeWeights[changeCount] = weight;
+					changeCount++;
+					changeWeight += weight;
+				}
+			}
+
+			if (changeWeight == 0) {
+				productions.identityProbability = 1;
+			} else {
+				productions.identityProbability = (double) identityWeight
+						/ (identityWeight + changeWeight);
+				productions.changeCandidates = new int[changeCount];
+				System.arraycopy(changeCandidates, 0,
+						productions.changeCandidates, 0, changeCount);
+
+				int[] weights = new int[changeCount];
+				System.arraycopy(changeWeights, 0, weights, 0, changeCount);
+				productions.changeSelector = new AliasTable(weights);
+			}
+		}
+
+		runProductions.put(symbol, productions);
+
+		return productions;
+	}
+
+	/**
+	 * Returns true if the candidate at the given index consumes a single
+	 * symbol, and writes it back unchanged.
+	 * 
+	 * @param candidateIndex
+	 *            the index of the candidate.
+	 * @param symbol
+	 *            the symbol which is consumed.
+	 * @return true if the candidate leaves the symbol unchanged.
+	 */
+	private boolean isIdentity(int candidateIndex, char symbol) {
+		char[] successor = trie.getCandidateSuccessor(candidateIndex);
+
+		if (successor.length != 1 || successor[0] != symbol
+				|| trie.getCandidate(candidateIndex).getContextLength() != 1) {
+			return false;
+		}
+
+		// Unless the entire context is changed, the contexts are written
+		// along with the successor.
+		return grammar.isChangeEntireContext()
+				|| (trie.getCandidatePrecedingContext(candidateIndex).length == 0 && trie
+						.getCandidateProceedingContext(candidateIndex).length == 0);
+	}
+
+	/**
+	 * Reverts the current generation back to the axiom.
+	 */
+	public void reset() {
+		currentSymbols.clear();
+
+		String axiom = grammar.getAxiom();
+
+		for (int charIndex = 0; charIndex < axiom.length(); charIndex++) {
+			currentSymbols.append(axiom.charAt(charIndex));
+		}
+	}
+
+	/**
+	 * Returns the runs of the current generation. The runs are owned by this
+	 * derivation, and are replaced by the next call to {@link #advance()} or
+	 * {@link #reset()}.
+	 * 
+	 * @return the runs of the current generation.
+	 */
+	public RunLengthSymbols getCurrentSymbols() {
+		return currentSymbols;
+	}
+}
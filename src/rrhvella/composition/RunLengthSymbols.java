@@ -0,0 +1,230 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+/**
+ * A string of symbols stored as a sequence of runs, each of which is a symbol
+ * repeated a number of times.
+ * 
+ * Generations in which long stretches of the same symbol are left unchanged,
+ * such as those of the melody grammar, take up space in proportion to the
+ * number of runs, rather than to their length.
+ */
+public class RunLengthSymbols {
+	/**
+	 * The number of runs the string can hold, if no capacity is specified.
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * The symbol of each run.
+	 */
+	private char[] runSymbols;
+	/**
+	 * The number of times the symbol of each run is repeated.
+	 */
+	private long[] runLengths;
+	/**
+	 * The number of runs in the string.
+	 */
+	private int runCount;
+	/**
+	 * The number of symbols in the string.
+	 */
+	private long length;
+
+	/**
+	 * Creates an empty string.
+	 */
+	public RunLengthSymbols() {
+		runSymbols = new char[DEFAULT_CAPACITY];
+		runLengths = new long[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Creates a string which holds the symbols of the given string.
+	 * 
+	 * @param source
+	 *            the string whose symbols will be stored.
+	 */
+	public RunLengthSymbols(CharSequence source) {
+		this();
+
+		for (int charIndex = 0; charIndex < source.length(); charIndex++) {
+			append(source.charAt(charIndex));
+		}
+	}
+
+	/**
+	 * Removes all the runs from the string. The capacity of the string is
+	 * kept, so that it can be filled again without allocating memory.
+	 */
+	public void clear() {
+		runCount = 0;
+		length = 0;
+	}
+
+	/**
+	 * Appends a run to the string. If the last run of the string has the same
+	 * symbol, it is extended instead.
+	 * 
+	 * @param symbol
+	 *            the symbol of the run.
+	 * @param runLength
+	 *            the number of times the symbol is repeated.
+	 */
+	public void appendRun(char symbol, long runLength) {
+		if (runLength <= 0) {
+			return;
+		}
+
+		length += runLength;
+
+		// Extend the last run, if it has the same symbol.
+		if (runCount > 0 && runSymbols[runCount - 1] == symbol) {
+			runLengths[runCount - 1] += runLength;
+			return;
+		}
+
+		// At least double the number of runs the string can hold, so that
+		// appending a run takes constant time on average.
+		if (runCount == runSymbols.length) {
+			char[] newRunSymbols = new char[runCount * 2];
+			long[] newRunLengths = new long[runCount * 2];
+
+			System.arraycopy(runSymbols, 0, newRunSymbols, 0, runCount);
+			System.arraycopy(runLengths, 0, newRunLengths, 0, runCount);
+
+			runSymbols = newRunSymbols;
+			runLengths = newRunLengths;
+		}
+
+		runSymbols[runCount] = symbol;
+		runLengths[runCount] = runLength;
+		runCount++;
+	}
+
+	/**
+	 * Appends a single symbol to the string.
+	 * 
+	 * @param symbol
+	 *            the symbol which will be appended.
+	 */
+	public void append(char symbol) {
+		appendRun(symbol, 1);
+	}
+
+	/**
+	 * Appends a sequence of symbols to the string.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols.
+	 * @param offset
+	 *            the index of the first symbol which will be appended.
+	 * @param count
+	 *            the number of symbols which will be appended.
+	 */
+	public void append(char[] source, int offset, int count) {
+		for (int charIndex = offset; charIndex < offset + count; charIndex++) {
+			appendRun(source[charIndex], 1);
+		}
+	}
+
+	/**
+	 * Returns the number of runs in the string.
+	 * 
+	 * @return the number of runs in the string.
+	 */
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * Returns the symbol of the run at the given index.
+	 * 
+	 * @param runIndex
+	 *            the index of the run.
+	 * @return the symbol of the run.
+	 */
+	public char getRunSymbol(int runIndex) {
+		return runSymbols[runIndex];
+	}
+
+	/**
+	 * Returns the number of times the symbol of the run at the given index is
+	 * repeated.
+	 * 
+	 * @param runIndex
+	 *            the index of the run.
+	 * @return the length of the run.
+	 */
+	public long getRunLength(int runIndex) {
+		return runLengths[runIndex];
+	}
+
+	/**
+	 * Returns the number of symbols in the string.
+	 * 
+	 * @return the number of symbols in the string.
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Appends all the symbols of the string to the given buffer.
+	 * 
+	 * @param result
+	 *            the buffer to which the symbols will be appended.
+	 */
+	public void decode(SymbolBuffer result) {
+		if (length > result.getLimit() - result.length()) {
+			throw new SymbolBudgetExceededException(result.getLimit(),
+					result.length() + length);
+		}
+
+		result.ensureCapacity((int) (result.length() + length));
+
+		for (int runIndex = 0; runIndex < runCount; runIndex++) {
+			for (long symbolIndex = 0; symbolIndex < runLengths[runIndex]; symbolIndex++) {
+				result.append(runSymbols[runIndex]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		SymbolBuffer result = new SymbolBuffer((int) Math.min(length,
+				SymbolBuffer.MAX_CAPACITY));
+		decode(result);
+
+		return result.toString();
+	}
+}
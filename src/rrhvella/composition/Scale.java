@@ -50,6 +50,20 @@ public enum Scale {
 	 * @see ChordProfiles
 	 */
 	private char[] chordProfile;
+	/**
+	 * The grammar which generates the chord progressions for this scale, or
+	 * null if it has not been built yet.
+	 * 
+	 * @see #getChordGrammar()
+	 */
+	private volatile Grammar chordGrammar;
+	/**
+	 * The Markov chain over the chords of the chord grammar for this scale, or
+	 * null if it has not been built yet.
+	 * 
+	 * @see #getChordChain()
+	 */
+	private volatile ChordMarkovChain chordChain;
 
 	/**
 	 * 
@@ -63,14 +77,100 @@ public enum Scale {
 		this.chordProfile = chordProfile;
 	}
 
+	/**
+	 * Returns the consonance profile associated with this scale.
+	 * 
+	 * @see ConsonanceProfiles
+	 * @return the consonance profile associated with this scale.
+	 */
+	public int[] getConsonanceProfile() {
+		return consonanceProfile;
+	}
+
 	/**
 	 * Returns the L-system which generates the chord progression for a key with
-	 * this scale.
+	 * this scale. Each chord of the progression is a single symbol of
+	 * {@link ChordProfiles#CHORD_ALPHABET}.
 	 * 
 	 * @return the L-system which generates the chord progression for a key with
 	 *         this scale.
 	 */
 	public ContextSensitiveNonDeterministicLSystem getChordSystem() {
+		return new ContextSensitiveNonDeterministicLSystem(getChordGrammar());
+	}
+
+	/**
+	 * Returns the grammar which generates the chord progressions for this
+	 * scale.
+	 * 
+	 * The chords are described by their intervals from the tonic of the key,
+	 * so the same grammar serves every key with this scale, and the tonic is
+	 * only applied when the chords are decoded. The grammar is therefore built
+	 * the first time that it is requested, along with its trie and alias
+	 * tables, and is then shared by every thread. The progressions of a piece
+	 * are short, so the matcher of the grammar is not compiled, which would
+	 * cost far more than it saves; {@link Grammar#compile()} can still be
+	 * used to obtain a compiled copy.
+	 * 
+	 * @return the grammar which generates the chord progressions for this
+	 *         scale.
+	 */
+	public Grammar getChordGrammar() {
+		Grammar grammar = chordGrammar;
+
+		if (grammar == null) {
+			synchronized (this) {
+				grammar = chordGrammar;
+
+				// Build the grammar, if this has not been done already.
+				if (grammar == null) {
+					grammar = buildChordGrammar();
+					chordGrammar = grammar;
+				}
+			}
+		}
+
+		return grammar;
+	}
+
+	/**
+	 * Returns the Markov chain which samples chord progressions for this scale.
+	 * 
+	 * The transitions of the chain are the productions of
+	 * {@link #getChordGrammar()}, with the same weights, so a progression can
+	 * be sampled straight into an array of chord ids instead of being derived
+	 * by the L-system. Like the grammar, the chain is built the first time
+	 * that it is requested, and is then shared by every thread.
+	 * 
+	 * @return the Markov chain which samples chord progressions for this
+	 *         scale.
+	 */
+	public ChordMarkovChain getChordChain() {
+		ChordMarkovChain chain = chordChain;
+
+		if (chain == null) {
+			synchronized (this) {
+				chain = chordChain;
+
+				// Build the chain, if this has not been done already.
+				if (chain == null) {
+					chain = new ChordMarkovChain(getChordGrammar());
+					chordChain = chain;
+				}
+			}
+		}
+
+		return chain;
+	}
+
+	/**
+	 * Builds the grammar which generates the chord progressions for this
+	 * scale.
+	 * 
+	 * @return the grammar which generates the chord progressions for this
+	 *         scale.
+	 */
+	private Grammar buildChordGrammar() {
 		// The productions for the new grammar.
 		HashMap<ContextSensitiveNonDeterministicPredecessor, String> productions = new HashMap<ContextSensitiveNonDeterministicPredecessor, String>();
 
@@ -86,12 +186,11 @@ public enum Scale {
 					interval += Chord.NOTES_IN_AN_OCTAVE;
 				}
 
-				// Format the note numbers as two character strings, padding
-				// them to the left with 0s.
-				String firstNoteString = String.format("%02d",
-						firstNoteIndex + 1);
-				String secondNoteString = String.format("%02d",
-						secondNoteIndex + 1);
+				// The symbols of the chords of the two notes.
+				char firstChord = ChordProfiles.chordSymbol(firstNoteIndex,
+						chordProfile[firstNoteIndex]);
+				char secondChord = ChordProfiles.chordSymbol(secondNoteIndex,
+						chordProfile[secondNoteIndex]);
 
 				// Get the consonance profile for the first note.
 				int[] firstNoteConsonanceProfile = ConsonanceProfiles.major;
@@ -118,30 +217,21 @@ public enum Scale {
 				// which has the tonic equal to the first note in this
 				// combination.
 				//
-				// The successor should be the chord for the first
-				// note concatenated with the chord for the second note. The
-				// chords should be a string with the interval of their tonic
-				// from the key's tonic as the first two characters (01 - 12).
-				// The third character should be either m or M, which represent
-				// a minor triad and a major triad, respectively.
-				//
-				// For example, 01m represents a minor triad in the tonic of the
-				// key. 08M represents a major triad in the dominant of the key.
+				// The successor should be the chord for the first note
+				// followed by the chord for the second note. Each chord is a
+				// single symbol of the chord alphabet.
 				productions.put(
 						new ContextSensitiveNonDeterministicPredecessor(
-								firstNoteString, chordProfile[firstNoteIndex],
-								consonance), firstNoteString
-								+ chordProfile[firstNoteIndex]
-								+ secondNoteString
-								+ chordProfile[secondNoteIndex]);
+								firstChord, consonance), "" + firstChord
+								+ secondChord);
 			}
 		}
 
 		// Return the new grammar. Set the chord 01M as the axiom (or 01m if the
-		// scale is
-		// minor).
-		return new ContextSensitiveNonDeterministicLSystem("01"
-				+ chordProfile[0], productions, true);
+		// scale is minor).
+		return new Grammar(""
+				+ ChordProfiles.chordSymbol(0, chordProfile[0]), productions,
+				true);
 	}
 
 }
\ No newline at end of file
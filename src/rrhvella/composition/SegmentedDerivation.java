@@ -0,0 +1,303 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A derivation whose generations are stored in {@link SegmentedSymbols}, so
+ * that they can grow past the length of a single array, and spill from the
+ * heap to temporary files.
+ * 
+ * Each generation is rewritten one segment at a time. The symbols of a segment
+ * are copied into a window, followed by just enough symbols of the next
+ * segment to fit the longest context of the grammar, so that the contexts
+ * which cross the end of the segment are still matched. If the 'change entire
+ * context' flag is true, the last production applied to a segment may consume
+ * some of the symbols of the next one, in which case the rewrite of the next
+ * segment starts after them. Therefore, the result is the same as that of
+ * rewriting the whole generation at once, and only a single segment of the
+ * source is ever held in the window.
+ * 
+ * The productions are selected by a single selector for the whole generation,
+ * which sees the segments in order, so a grammar which only allows some
+ * productions applies the same restriction as it does for a
+ * {@link Derivation}. If the generation has no valid descendant, it is kept
+ * unchanged.
+ * 
+ * The length of each generation can be capped with a symbol budget, as with
+ * {@link Derivation#setSymbolBudget(int, SymbolBudgetPolicy)}, although the
+ * budget of a segmented derivation is not limited to the length of an array.
+ * The current generation can be read with {@link SegmentedSymbols#cursor()},
+ * or turned into a {@link DerivationDag} with {@link #deriveDag()}, without
+ * being copied into a single string.
+ */
+public class SegmentedDerivation implements Closeable {
+	/**
+	 * The grammar whose productions are applied.
+	 */
+	private Grammar grammar;
+	/**
+	 * The random number generator used to select the productions.
+	 */
+	private Random randomGenerator;
+	/**
+	 * The symbols generated by the last iteration.
+	 */
+	private SegmentedSymbols currentSymbols;
+	/**
+	 * The sequence into which the next iteration is generated. Once the
+	 * iteration is complete, it is swapped with the current symbols.
+	 */
+	private SegmentedSymbols nextSymbols;
+	/**
+	 * The window into which each segment of the source is copied, along with
+	 * the start of the following segment.
+	 */
+	private char[] window;
+	/**
+	 * The buffer which holds the result of rewriting a single segment.
+	 */
+	private SymbolBuffer segmentResult = new SymbolBuffer();
+	/**
+	 * The largest number of symbols which a generation is allowed to hold.
+	 */
+	private long symbolBudget = Long.MAX_VALUE;
+	/**
+	 * What is done when the next generation would not fit in the symbol
+	 * budget.
+	 */
+	private SymbolBudgetPolicy budgetPolicy = SymbolBudgetPolicy.FAIL;
+
+	/**
+	 * 
+	 * @param grammar
+	 *            the grammar whose productions are applied.
+	 * @param randomGenerator
+	 *            the random number generator used to select the productions.
+	 * @param heapThreshold
+	 *            the number of symbols of each generation which are kept on
+	 *            the heap before the rest spill to a temporary file.
+	 */
+	public SegmentedDerivation(Grammar grammar, Random randomGenerator,
+			long heapThreshold) {
+		this.grammar = grammar;
+		this.randomGenerator = randomGenerator;
+		this.currentSymbols = new SegmentedSymbols(heapThreshold);
+		this.nextSymbols = new SegmentedSymbols(heapThreshold);
+		this.window = new char[SegmentedSymbols.SEGMENT_LENGTH
+				+ grammar.getMaxContextLength()];
+
+		currentSymbols.append(grammar.getAxiom());
+	}
+
+	/**
+	 * Returns the grammar whose productions are applied.
+	 * 
+	 * @return the grammar whose productions are applied.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * Sets the largest number of symbols which a generation of this derivation
+	 * is allowed to hold, and what is done when the next generation would not
+	 * fit.
+	 * 
+	 * @param symbolBudget
+	 *            the largest number of symbols which a generation is allowed
+	 *            to hold.
+	 * @param budgetPolicy
+	 *            what is done when the next generation would not fit in the
+	 *            budget.
+	 * @throws IllegalArgumentException
+	 *             if the budget is negative.
+	 */
+	public void setSymbolBudget(long symbolBudget,
+			SymbolBudgetPolicy budgetPolicy) {
+		if (symbolBudget < 0) {
+			throw new IllegalArgumentException("Invalid symbol budget: "
+					+ symbolBudget);
+		}
+
+		this.symbolBudget = symbolBudget;
+		this.budgetPolicy = budgetPolicy;
+	}
+
+	/**
+	 * Returns the largest number of symbols which a generation of this
+	 * derivation is allowed to hold.
+	 * 
+	 * @return the largest number of symbols which a generation is allowed to
+	 *         hold.
+	 */
+	public long getSymbolBudget() {
+		return symbolBudget;
+	}
+
+	/**
+	 * Returns what this derivation does when the next generation would not
+	 * fit in its budget.
+	 * 
+	 * @return what this derivation does when the next generation would not fit
+	 *         in its budget.
+	 */
+	public SymbolBudgetPolicy getBudgetPolicy() {
+		return budgetPolicy;
+	}
+
+	/**
+	 * Rewrites the current generation, one segment at a time.
+	 * 
+	 * @throws SymbolBudgetExceededException
+	 *             if the next generation would not fit in the symbol budget,
+	 *             and the budget policy is {@link SymbolBudgetPolicy#FAIL}.
+	 *             The current generation is kept.
+	 */
+	public void advance() {
+		long sourceLength = currentSymbols.length();
+		int segmentLength = SegmentedSymbols.SEGMENT_LENGTH;
+		// The position in the current segment at which the rewrite starts.
+		int entry = 0;
+
+		// Fail straight away if even the shortest generation which the
+		// grammar can produce would not fit in the budget.
+		long minimumLength = grammar.getMinimumResultLength(sourceLength);
+
+		if (minimumLength > symbolBudget
+				&& budgetPolicy == SymbolBudgetPolicy.FAIL) {
+			throw new SymbolBudgetExceededException(symbolBudget,
+					minimumLength);
+		}
+
+		ProductionSelector selector = grammar.newSelector();
+
+		nextSymbols.clear();
+
+		for (long segmentStart = 0; segmentStart < sourceLength; segmentStart += segmentLength) {
+			// Copy the segment, followed by the start of the next one, into
+			// the window.
+			int windowLength = currentSymbols.read(segmentStart, window, 0,
+					window.length);
+			int segmentEnd = (int) Math.min(segmentLength, sourceLength
+					- segmentStart);
+
+			// Rewrite the segment.
+			segmentResult.clear();
+
+			int exit = grammar.rewrite(window, windowLength, entry,
+					segmentEnd, segmentResult, randomGenerator, selector);
+
+			// Append the result to the next generation, as long as it fits
+			// in the budget.
+			long remaining = symbolBudget - nextSymbols.length();
+
+			if (segmentResult.length() > remaining) {
+				if (budgetPolicy == SymbolBudgetPolicy.FAIL) {
+					throw new SymbolBudgetExceededException(symbolBudget,
+							nextSymbols.length() + segmentResult.length());
+				}
+
+				// Cut the generation off at the budget.
+				nextSymbols.append(segmentResult.getSymbols(), 0,
+						(int) remaining);
+				swap();
+				return;
+			}
+
+			nextSymbols.append(segmentResult.getSymbols(), 0,
+					segmentResult.length());
+
+			// Skip the symbols of the next segment which were consumed by the
+			// last production.
+			entry = exit - segmentEnd;
+		}
+
+		// If no valid descendant exists, keep the current generation.
+		if (selector.isValid()) {
+			swap();
+		}
+	}
+
+	/**
+	 * Makes the next symbols the current ones.
+	 */
+	private void swap() {
+		SegmentedSymbols previousSymbols = currentSymbols;
+		currentSymbols = nextSymbols;
+		nextSymbols = previousSymbols;
+	}
+
+	/**
+	 * Reverts the current generation back to the axiom.
+	 */
+	public void reset() {
+		currentSymbols.clear();
+		currentSymbols.append(grammar.getAxiom());
+	}
+
+	/**
+	 * Returns the symbols of the current generation. The sequence is owned by
+	 * this derivation, and its contents are replaced by the next call to
+	 * {@link #advance()} or {@link #reset()}.
+	 * 
+	 * @return the symbols of the current generation.
+	 */
+	public SegmentedSymbols getCurrentSymbols() {
+		return currentSymbols;
+	}
+
+	/**
+	 * Builds a directed acyclic graph of the current generation, reading the
+	 * symbols straight from its segments.
+	 * 
+	 * @return the graph of the current generation.
+	 * @see SegmentedSymbols#cursor()
+	 */
+	public DerivationDag deriveDag() {
+		return new DerivationDag(currentSymbols.cursor());
+	}
+
+	/**
+	 * Releases the segments of both generations, and deletes their temporary
+	 * files.
+	 * 
+	 * @throws IOException
+	 *             if a temporary file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		currentSymbols.close();
+		nextSymbols.close();
+	}
+}
@@ -0,0 +1,447 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A growable sequence of symbols, indexed by a long, which is stored in
+ * segments of a fixed length.
+ * 
+ * Unlike a {@link SymbolBuffer}, the sequence is not limited to the length of
+ * a single array, and it never has to be copied as it grows. The first
+ * segments are kept on the heap. Once the number of symbols on the heap
+ * reaches a threshold, every further segment is mapped from a temporary file,
+ * so a generation which is much larger than the heap can still be stored.
+ * 
+ * The segments are kept when the sequence is cleared, so that it can be
+ * filled again without allocating memory. The temporary file is only deleted
+ * when the sequence is closed. There is no way to unmap a mapped segment, so
+ * the memory mapped from the file is only released once the segment has been
+ * garbage collected, which may be well after the sequence has been closed.
+ */
+public class SegmentedSymbols implements Closeable {
+	/**
+	 * The number of symbols in each segment.
+	 */
+	public static final int SEGMENT_LENGTH = 1 << 20;
+	/**
+	 * The number of symbols which are kept on the heap, if no threshold is
+	 * specified.
+	 */
+	public static final long DEFAULT_HEAP_THRESHOLD = 64L * SEGMENT_LENGTH;
+	/**
+	 * The number of symbols which a cursor copies out of the segments at a
+	 * time.
+	 */
+	private static final int CURSOR_BLOCK_LENGTH = 1 << 12;
+
+	/**
+	 * The segments which hold the symbols. The segments which are kept on the
+	 * heap are backed by an array.
+	 */
+	private ArrayList<CharBuffer> segments = new ArrayList<CharBuffer>();
+	/**
+	 * The number of symbols in the sequence.
+	 */
+	private long length;
+	/**
+	 * The number of symbols which are kept on the heap before the segments
+	 * are mapped from the temporary file.
+	 */
+	private long heapThreshold;
+	/**
+	 * The number of segments which are mapped from the temporary file.
+	 */
+	private int spilledSegmentCount;
+	/**
+	 * The temporary file from which the spilled segments are mapped, or null
+	 * if no segment has been spilled.
+	 */
+	private File spillFile;
+	/**
+	 * The channel of the temporary file, or null if no segment has been
+	 * spilled.
+	 */
+	private FileChannel spillChannel;
+
+	/**
+	 * Creates an empty sequence, which spills to disk after
+	 * {@link #DEFAULT_HEAP_THRESHOLD} symbols.
+	 */
+	public SegmentedSymbols() {
+		this(DEFAULT_HEAP_THRESHOLD);
+	}
+
+	/**
+	 * Creates an empty sequence.
+	 * 
+	 * @param heapThreshold
+	 *            the number of symbols which are kept on the heap before the
+	 *            segments are mapped from a temporary file.
+	 */
+	public SegmentedSymbols(long heapThreshold) {
+		this.heapThreshold = heapThreshold;
+	}
+
+	/**
+	 * Returns the number of symbols in the sequence.
+	 * 
+	 * @return the number of symbols in the sequence.
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of segments which are mapped from the temporary file.
+	 * 
+	 * @return the number of segments which are mapped from the temporary file.
+	 */
+	public int getSpilledSegmentCount() {
+		return spilledSegmentCount;
+	}
+
+	/**
+	 * Removes all the symbols from the sequence. The segments are kept, so
+	 * that the sequence can be filled again without allocating memory.
+	 */
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Returns the symbol at the given position.
+	 * 
+	 * @param index
+	 *            the position of the symbol.
+	 * @return the symbol at the given position.
+	 */
+	public char charAt(long index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Length: " + length);
+		}
+
+		return segments.get((int) (index / SEGMENT_LENGTH)).get(
+				(int) (index % SEGMENT_LENGTH));
+	}
+
+	/**
+	 * Appends a single symbol to the sequence.
+	 * 
+	 * @param symbol
+	 *            the symbol which will be appended.
+	 */
+	public void append(char symbol) {
+		int offset = (int) (length % SEGMENT_LENGTH);
+
+		getSegment(length / SEGMENT_LENGTH).put(offset, symbol);
+		length++;
+	}
+
+	/**
+	 * Appends a sequence of symbols to the sequence.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols.
+	 * @param offset
+	 *            the index of the first symbol which will be appended.
+	 * @param count
+	 *            the number of symbols which will be appended.
+	 */
+	public void append(char[] source, int offset, int count) {
+		// Fill the segments one after the other.
+		while (count > 0) {
+			int segmentOffset = (int) (length % SEGMENT_LENGTH);
+			int copied = Math.min(count, SEGMENT_LENGTH - segmentOffset);
+			CharBuffer segment = getSegment(length / SEGMENT_LENGTH);
+
+			if (segment.hasArray()) {
+				System.arraycopy(source, offset, segment.array(),
+						segment.arrayOffset() + segmentOffset, copied);
+			} else {
+				CharBuffer view = segment.duplicate();
+				view.position(segmentOffset);
+				view.put(source, offset, copied);
+			}
+
+			offset += copied;
+			count -= copied;
+			length += copied;
+		}
+	}
+
+	/**
+	 * Appends the symbols of the given string to the sequence.
+	 * 
+	 * @param source
+	 *            the string whose symbols will be appended.
+	 */
+	public void append(CharSequence source) {
+		for (int charIndex = 0; charIndex < source.length(); charIndex++) {
+			append(source.charAt(charIndex));
+		}
+	}
+
+	/**
+	 * Copies the symbols starting from the given position into an array.
+	 * 
+	 * @param position
+	 *            the position of the first symbol which will be copied.
+	 * @param destination
+	 *            the array into which the symbols will be copied.
+	 * @param offset
+	 *            the index in the array of the first symbol.
+	 * @param count
+	 *            the largest number of symbols which will be copied.
+	 * @return the number of symbols copied, which is less than the count if
+	 *         the end of the sequence is reached.
+	 */
+	public int read(long position, char[] destination, int offset, int count) {
+		if (position < 0 || position > length) {
+			throw new IndexOutOfBoundsException("Position: " + position
+					+ ", Length: " + length);
+		}
+
+		count = (int) Math.min(count, length - position);
+
+		int remaining = count;
+
+		// Copy the symbols from each segment in turn.
+		while (remaining > 0) {
+			int segmentOffset = (int) (position % SEGMENT_LENGTH);
+			int copied = Math.min(remaining, SEGMENT_LENGTH - segmentOffset);
+			CharBuffer segment = segments.get((int) (position / SEGMENT_LENGTH));
+
+			if (segment.hasArray()) {
+				System.arraycopy(segment.array(), segment.arrayOffset()
+						+ segmentOffset, destination, offset, copied);
+			} else {
+				CharBuffer view = segment.duplicate();
+				view.position(segmentOffset);
+				view.get(destination, offset, copied);
+			}
+
+			position += copied;
+			offset += copied;
+			remaining -= copied;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns a cursor which hands out the symbols of the sequence, in order,
+	 * starting from the first one.
+	 * 
+	 * @return a cursor over the symbols of the sequence.
+	 */
+	public SymbolCursor cursor() {
+		return cursor(0);
+	}
+
+	/**
+	 * Returns a cursor which hands out the symbols of the sequence, in order,
+	 * starting from the given position.
+	 * 
+	 * The cursor copies the symbols out of the segments a block at a time, so
+	 * the sequence can be read whether its segments are on the heap or mapped
+	 * from the temporary file. The cursor reads the sequence as it is when
+	 * each block is copied, so it should not be used once the sequence has
+	 * been cleared or closed.
+	 * 
+	 * @param position
+	 *            the position of the first symbol handed out by the cursor.
+	 * @return a cursor over the symbols of the sequence.
+	 */
+	public SymbolCursor cursor(long position) {
+		if (position < 0 || position > length) {
+			throw new IndexOutOfBoundsException("Position: " + position
+					+ ", Length: " + length);
+		}
+
+		return new Cursor(position);
+	}
+
+	/**
+	 * A cursor which hands out the symbols of the sequence in order.
+	 */
+	private class Cursor implements SymbolCursor {
+		/**
+		 * The block of symbols copied out of the segments.
+		 */
+		private char[] block = new char[CURSOR_BLOCK_LENGTH];
+		/**
+		 * The number of symbols in the block.
+		 */
+		private int blockLength;
+		/**
+		 * The index of the next symbol to hand out from the block.
+		 */
+		private int blockIndex;
+		/**
+		 * The position in the sequence of the first symbol which has not been
+		 * copied into the block.
+		 */
+		private long position;
+
+		/**
+		 * 
+		 * @param position
+		 *            the position of the first symbol handed out by the
+		 *            cursor.
+		 */
+		public Cursor(long position) {
+			this.position = position;
+		}
+
+		@Override
+		public boolean hasNext() {
+			// Copy the next block once the current one has been handed out.
+			if (blockIndex == blockLength && position < length) {
+				blockLength = read(position, block, 0, block.length);
+				blockIndex = 0;
+				position += blockLength;
+			}
+
+			return blockIndex < blockLength;
+		}
+
+		@Override
+		public char next() {
+			if (!hasNext()) {
+				throw new IllegalStateException(
+						"There are no more symbols in this sequence.");
+			}
+
+			return block[blockIndex++];
+		}
+	}
+
+	/**
+	 * Returns the segment with the given index, creating it if it does not
+	 * exist yet.
+	 * 
+	 * @param segmentIndex
+	 *            the index of the segment.
+	 * @return the segment with the given index.
+	 */
+	private CharBuffer getSegment(long segmentIndex) {
+		if (segmentIndex > Integer.MAX_VALUE) {
+			throw new SymbolBudgetExceededException((long) Integer.MAX_VALUE
+					* SEGMENT_LENGTH, length + 1);
+		}
+
+		// Add the segments which are missing.
+		while (segments.size() <= segmentIndex) {
+			if ((long) (segments.size() + 1) * SEGMENT_LENGTH <= heapThreshold) {
+				segments.add(CharBuffer.wrap(new char[SEGMENT_LENGTH]));
+			} else {
+				segments.add(spill(segments.size()));
+			}
+		}
+
+		return segments.get((int) segmentIndex);
+	}
+
+	/**
+	 * Maps the segment with the given index from the temporary file.
+	 * 
+	 * @param segmentIndex
+	 *            the index of the segment.
+	 * @return the mapped segment.
+	 */
+	private CharBuffer spill(int segmentIndex) {
+		try {
+			// Create the temporary file, if this has not been done already.
+			if (spillChannel == null) {
+				spillFile = File.createTempFile("symbols", ".tmp");
+				spillFile.deleteOnExit();
+				spillChannel = new RandomAccessFile(spillFile, "rw")
+						.getChannel();
+			}
+
+			// Each symbol takes up two bytes in the file. The file grows to
+			// fit the region which is mapped.
+			long segmentBytes = SEGMENT_LENGTH * 2L;
+			CharBuffer segment = spillChannel.map(
+					FileChannel.MapMode.READ_WRITE,
+					(long) spilledSegmentCount * segmentBytes, segmentBytes)
+					.asCharBuffer();
+
+			spilledSegmentCount++;
+
+			return segment;
+		} catch (IOException exception) {
+			throw new IllegalStateException("Segment " + segmentIndex
+					+ " could not be mapped from a temporary file.", exception);
+		}
+	}
+
+	/**
+	 * Releases the segments, and deletes the temporary file. The sequence is
+	 * empty afterwards, and can still be used.
+	 * 
+	 * The mapped segments are dropped, but they are only unmapped once they
+	 * are garbage collected. Platforms which lock mapped files, such as
+	 * Windows, refuse to delete the temporary file until then, in which case
+	 * it is deleted when the virtual machine exits instead.
+	 * 
+	 * @throws IOException
+	 *             if the temporary file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		segments.clear();
+		length = 0;
+		spilledSegmentCount = 0;
+
+		if (spillChannel != null) {
+			spillChannel.close();
+
+			// The file may still be mapped by segments which have not been
+			// garbage collected yet, so leave it to be deleted on exit if it
+			// cannot be deleted now.
+			if (!spillFile.delete() && spillFile.exists()) {
+				spillFile.deleteOnExit();
+			}
+
+			spillChannel = null;
+			spillFile = null;
+		}
+	}
+}
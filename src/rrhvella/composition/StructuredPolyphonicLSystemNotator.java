@@ -31,9 +31,10 @@ package rrhvella.composition;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Random;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiEvent;
@@ -83,14 +84,61 @@ public class StructuredPolyphonicLSystemNotator {
 	 * which generates the melody.
 	 */
 	public static final int MAX_MELODY_ITERATIONS = 7;
+	/**
+	 * The number of iterations of the L-system which generates the melody,
+	 * which are shared by the patterns derived together for the same phrase
+	 * length. The patterns branch from the generation reached, so it is only
+	 * derived once. This cannot be greater than the minimum number of
+	 * iterations.
+	 */
+	public static final int SHARED_MELODY_ITERATIONS = 1;
+	/**
+	 * The number of candidate melodic patterns which are scored for each
+	 * voice of a token, of which the best one is kept.
+	 * 
+	 * @see MelodySearch
+	 */
+	public static final int MELODY_CANDIDATES = 8;
+	/**
+	 * The number of melodic patterns kept in advance for each combination of
+	 * phrase length and number of iterations, when the default pool is
+	 * created. This is enough for a single voice to take all its candidates
+	 * from the pool, which is the most that the default number of voices
+	 * usually need, since each voice of a token selects its number of
+	 * iterations at random. The pool is made deeper when a piece has more
+	 * voices which need patterns of the same combination.
+	 * 
+	 * @see StructuredPolyphonicLSystemNotator#reserveMelodyPatterns(int)
+	 */
+	public static final int MELODY_POOL_DEPTH = MELODY_CANDIDATES;
 	/**
 	 * The lowest octave which can be occupied by a voice in this piece.
 	 */
 	public static final int MIN_OCTAVE = 3;
 	/**
-	 * The number of voices in this piece.
+	 * The highest octave which can be occupied by a voice in this piece.
+	 */
+	public static final int MAX_OCTAVE = 6;
+	/**
+	 * The number of voices in a piece, unless another number is given.
+	 */
+	public static final int DEFAULT_NUMBER_OF_VOICES = 4;
+	/**
+	 * The MIDI channel reserved for percussion, which is never assigned to a
+	 * voice.
+	 */
+	private static final int PERCUSSION_CHANNEL = 9;
+	/**
+	 * The number of MIDI channels.
+	 */
+	private static final int MIDI_CHANNELS = 16;
+	/**
+	 * The source of the melodic patterns of the voices, which is shared by all
+	 * the pieces generated by the application. Unless another source is set,
+	 * a pool which derives the patterns in the background is created the
+	 * first time that a piece is generated.
 	 */
-	private static final int NUMBER_OF_VOICES = 4;
+	private static MelodyPatternSource melodyPatterns;
 
 	/**
 	 * Analyses the structure string, and uses the other information provided by
@@ -103,6 +151,8 @@ public class StructuredPolyphonicLSystemNotator {
 		 * 
 		 * @param midiTrack
 		 *            the track which will be updated.
+		 * @param channel
+		 *            the MIDI channel of the note.
 		 * @param note
 		 *            the note which will be added to the track.
 		 * @param start
@@ -111,12 +161,12 @@ public class StructuredPolyphonicLSystemNotator {
 		 *            the length of the note.
 		 * @throws InvalidMidiDataException
 		 */
-		private static void addNote(Track midiTrack, byte note, int start,
-				int length) throws InvalidMidiDataException {
+		private static void addNote(Track midiTrack, int channel, byte note,
+				int start, int length) throws InvalidMidiDataException {
 
 			// Add the note on message at the specified starting point.
 			ShortMessage noteOnMessage = new ShortMessage();
-			noteOnMessage.setMessage(ShortMessage.NOTE_ON, 0, note,
+			noteOnMessage.setMessage(ShortMessage.NOTE_ON, channel, note,
 					MEDIUM_VELOCITY);
 
 			midiTrack.add(new MidiEvent(noteOnMessage, start));
@@ -124,7 +174,7 @@ public class StructuredPolyphonicLSystemNotator {
 			// Add the note off message at the location given by the specified
 			// starting point plus the length of the note.
 			ShortMessage noteOffMessage = new ShortMessage();
-			noteOffMessage.setMessage(ShortMessage.NOTE_OFF, 0, note,
+			noteOffMessage.setMessage(ShortMessage.NOTE_OFF, channel, note,
 					MEDIUM_VELOCITY);
 
 			midiTrack.add(new MidiEvent(noteOffMessage, start + length));
@@ -142,6 +192,14 @@ public class StructuredPolyphonicLSystemNotator {
 			 * The octave associated with the voice.
 			 */
 			public int octave;
+			/**
+			 * The MIDI channel associated with the voice.
+			 */
+			public int channel;
+			/**
+			 * The chord degree of the voice in the final chord of the piece.
+			 */
+			public int finalChordDegree;
 			/**
 			 * The index associated with a voice (used to lookup a melody string
 			 * in a track).
@@ -154,25 +212,6 @@ public class StructuredPolyphonicLSystemNotator {
 		 * understood by the application.
 		 */
 		private class Token {
-			/**
-			 * A state in the rendering process.
-			 */
-			private class State {
-				/**
-				 * The current note length.
-				 */
-				public int noteDuration;
-				/**
-				 * The current chord index.
-				 */
-				public int chordDegree;
-
-				public State(int noteLength, int chordIndex) {
-					this.noteDuration = noteLength;
-					this.chordDegree = chordIndex;
-				}
-			}
-
 			/**
 			 * The length, in bars, for the phrase generated by this token.
 			 */
@@ -182,9 +221,9 @@ public class StructuredPolyphonicLSystemNotator {
 			 */
 			public Chord[] harmonicPattern;
 			/**
-			 * The melodies for the voices in this phrase.
+			 * The compiled melodies for the voices in this phrase.
 			 */
-			public String[] melodicPatterns;
+			public MelodicPattern[] melodicPatterns;
 
 			/**
 			 * Writes the phrase associated with this token, into the track
@@ -205,82 +244,28 @@ public class StructuredPolyphonicLSystemNotator {
 				 * This is an implementation of the enhanced sequential
 				 * rendering technique given by Worth and Stepney (2005a, p. 5).
 				 * It was further elaborated on their website (2005b,
-				 * "Musical Grammars to L-Systems").
+				 * "Musical Grammars to L-Systems"). The symbols of the melody
+				 * were already interpreted when the pattern was compiled, so
+				 * only the notes are left to be added.
 				 */
 
-				// The number of tatums which have been processed for the
+				// The compiled melodic pattern for the current voice, in the
 				// current phrase.
-				int phraseLengthProcessed = 0;
-				// The harmonic info which is currently being used.
-				Chord harmonicInfo = null;
-				// The state stack for the sequential rendering process.
-				Stack<State> stateStack = new Stack<State>();
-				// The first state in the rendering process.
-				State currentState = new State(BAR_LENGTH, 0);
-				// The string describing the melodic pattern for the current
-				// voice, in the current phrase.
-				String melodicPattern = melodicPatterns[voice.index];
-				// The index of the harmonic info which is currently being used.
-				int harmonicIndex = 0;
-				// The boundary of the last crochet.
-				int lastCrochetBoundary = -1;
-
-				// For each character in the melody string.
-				for (char melodicToken : melodicPattern.toCharArray()) {
-					// Interpret the token.
-					switch (melodicToken) {
-					case 'F':
-						// If we have crossed the boundary of a crochet, iterate
-						// through the harmonic pattern until we come to the
-						// chord for the current crochet.
-						while (phraseLengthProcessed / CROCHET_LENGTH > lastCrochetBoundary) {
-							harmonicInfo = harmonicPattern[harmonicIndex++];
-							lastCrochetBoundary++;
-						}
+				MelodicPattern melodicPattern = melodicPatterns[voice.index];
 
-						// Add the new note to the track for the current voice.
-						// Use the note duration and chord degree specified by
-						// the current state.
-						addNote(voice.midiTrack, harmonicInfo.getMidiNote(
-								currentState.chordDegree, voice.octave), index
-								+ phraseLengthProcessed,
-								currentState.noteDuration);
-
-						// Update the record of the phrase length processed.
-						phraseLengthProcessed += currentState.noteDuration;
-						break;
-
-					case '+':
-						// Increase the chord index for the current state.
-						currentState.chordDegree++;
-						break;
-
-					case '-':
-						// Decrease the chord index for the current state.
-						currentState.chordDegree--;
-						break;
-
-					case 'd':
-						// Halve the note duration for the current state.
-						currentState.noteDuration /= 2;
-						break;
-
-					case 'D':
-						// Double the note duration for the current state.
-						currentState.noteDuration *= 2;
-						break;
-
-					case '[':
-						// Push the current state onto the stack.
-						stateStack.push(new State(currentState.noteDuration,
-								currentState.chordDegree));
-						break;
-
-					case ']':
-						// Pop the previous state from the stack.
-						currentState = stateStack.pop();
-						break;
-					}
+				// For each note in the melodic pattern.
+				for (int noteIndex = 0; noteIndex < melodicPattern
+						.getNoteCount(); noteIndex++) {
+					int start = melodicPattern.getStart(noteIndex);
+
+					// The harmonic info for the crochet in which the note
+					// starts.
+					Chord harmonicInfo = harmonicPattern[start / CROCHET_LENGTH];
+
+					// Add the new note to the track for the current voice.
+					addNote(voice.midiTrack, voice.channel, harmonicInfo.getMidiNote(
+							melodicPattern.getDegree(noteIndex), voice.octave),
+							index + start, melodicPattern.getDuration(noteIndex));
 				}
 			}
 		}
@@ -321,8 +306,11 @@ public class StructuredPolyphonicLSystemNotator {
 		 *            the structure of this piece, in the format of a string of
 		 *            repeating characters ("aba" means
 		 *            "first a, then b, then a again").
+		 * @param numberOfVoices
+		 *            the number of voices in this piece.
 		 */
-		public TokenAnalysis(Note tonic, Scale scaleType, String structure) {
+		public TokenAnalysis(Note tonic, Scale scaleType, String structure,
+				int numberOfVoices) {
 			this.tonic = tonic;
 			this.scaleType = scaleType;
 			this.randomGenerator = new Random();
@@ -331,15 +319,28 @@ public class StructuredPolyphonicLSystemNotator {
 			// Initialise the voice information array.
 			voices = new ArrayList<VoiceTrack>();
 
+			// The number of octaves which can be occupied by the voices.
+			int octaveCount = MAX_OCTAVE - MIN_OCTAVE + 1;
+
 			// For each voice.
-			for (int voiceIndex = 0; voiceIndex < NUMBER_OF_VOICES; voiceIndex++) {
+			for (int voiceIndex = 0; voiceIndex < numberOfVoices; voiceIndex++) {
 				// Initialise the voice.
 				VoiceTrack voice = new VoiceTrack();
 
 				// Select its octave. The first voice created is given the
-				// lowest octave. Subsequent voices are allocated higher octaves
-				// in ascending order.
-				voice.octave = MIN_OCTAVE + voiceIndex;
+				// lowest octave. Subsequent voices are spread evenly over the
+				// higher octaves, in ascending order, so that each octave is
+				// shared by the same number of voices, give or take one.
+				voice.octave = MIN_OCTAVE + voiceIndex * octaveCount
+						/ numberOfVoices;
+
+				// Select its channel. The voices are assigned the channels in
+				// turn, skipping the percussion channel.
+				voice.channel = voiceIndex % (MIDI_CHANNELS - 1);
+
+				if (voice.channel >= PERCUSSION_CHANNEL) {
+					voice.channel++;
+				}
 
 				// Store the order of creation for the voice.
 				voice.index = voiceIndex;
@@ -394,121 +395,202 @@ public class StructuredPolyphonicLSystemNotator {
 			}
 
 			// The harmonic progression of all the tokens, concatenated
-			// together,
-			// in order of their appearance.
-			LinkedList<Chord> harmony = new LinkedList<Chord>();
+			// together, in order of their appearance. Each chord is a shared
+			// instance, so the progression only holds references to them.
+			Chord[] harmony = new Chord[totalLength * CROCHETS_IN_A_BAR];
 
-			// The L-system which generates the harmony for the scale of the
+			// The Markov chain which samples the harmony for the scale of the
 			// piece's key.
-			ContextSensitiveNonDeterministicLSystem chordSystem = scaleType
-					.getChordSystem();
-
-			// The length required for the harmony string. This is the total
-			// length of all the tokens, in crochets, without the last minim. It
-			// is multiplied by three to take into account the format of the
-			// text which specifies a chord (ex. '01M').
-			int requiredLength = (totalLength * CROCHETS_IN_A_BAR - 2) * 3;
-
-			// The string which describes the harmony of this piece.
-			String harmonyString = "";
-
-			// While the harmony string does not meet the required length.
-			while (harmonyString.length() < requiredLength) {
-				// Reset the harmonic system.
-				chordSystem.reset();
-
-				// The string generated by the harmonic system's next iteration.
-				String nextString = "";
-				// The string generated by the previous iteration.
-				String currentString = "";
-
-				// While the harmony string concatenated to the next string does
-				// not meet the required length.
-				while (harmonyString.length()
-						+ (nextString = chordSystem.next()).length() <= requiredLength) {
-
-					// Store this string so that it may be concatenated to the
-					// harmony string. This is unless the string that is
-					// generated next also meets the length requirements.
-					currentString = nextString;
-				}
+			ChordMarkovChain chordChain = scaleType.getChordChain();
 
-				// Add the longest possible string generated to the harmony
-				// string.
-				harmonyString += currentString;
-			}
+			// The length required for the harmony. This is the total length of
+			// all the tokens, in crochets, without the last minim.
+			int requiredLength = totalLength * CROCHETS_IN_A_BAR - 2;
+
+			// The ids of the chords which describe the harmony of this piece,
+			// one for each crochet. The harmony is sampled straight into this
+			// array.
+			int[] harmonyChords = new int[requiredLength + 2];
+			chordChain.sample(harmonyChords, requiredLength, randomGenerator);
 
-			// Add the last two chords of the piece to the harmony string. These
+			// Add the last two chords of the piece to the harmony. These
 			// should always be the major fifth, so as to ensure an authentic
 			// cadence.
-			harmonyString += "08M08M";
+			char cadenceChord = ChordProfiles.chordSymbol(7,
+					ChordProfiles.MAJOR_TRIAD);
+			harmonyChords[requiredLength] = cadenceChord;
+			harmonyChords[requiredLength + 1] = cadenceChord;
 
-			// Process the harmony string and generate the chords
-			// for the tokens.
+			// Process the harmony and generate the chords for the tokens.
 
 			// For each crochet in each token.
-			for (int chordIndex = 0; chordIndex < totalLength
-					* CROCHETS_IN_A_BAR; chordIndex++) {
-				// The position of the current crochet in the harmony string.
-				int trueChordIndex = chordIndex * 3;
+			for (int chordIndex = 0; chordIndex < harmonyChords.length; chordIndex++) {
+				// The symbol of the chord at this location.
+				char chordSymbol = (char) harmonyChords[chordIndex];
 
 				// The interval between the tonic of the chord at this location,
 				// and the tonic of the key.
-				int interval = ((int) harmonyString.charAt(trueChordIndex) - 48)
-						* 10
-						+ ((int) harmonyString.charAt(trueChordIndex + 1) - 48)
-						- 1;
+				int interval = ChordProfiles.intervalFromSymbol(chordSymbol);
 
 				// The note given by the interval.
 				Note note = Note.fromInterval(tonic, interval);
 
 				// The type of the chord at this location.
 				ChordType chordType = ChordProfiles
-						.chordTypeFromCharacter(harmonyString
-								.charAt(trueChordIndex + 2));
+						.chordTypeFromSymbol(chordSymbol);
 
 				// Add the chord for this crochet.
-				harmony.add(new Chord(note, chordType));
+				harmony[chordIndex] = Chord.valueOf(note, chordType);
 			}
 
+			// The search which chooses the melodic pattern of each voice from
+			// a number of candidates.
+			final MelodySearch melodySearch = new MelodySearch(
+					getMelodyPatternSource(), MELODY_CANDIDATES,
+					ForkJoinPool.commonPool());
+
+			// The tasks which choose the melodic patterns of the voices, for
+			// all the tokens.
+			final ArrayList<RecursiveAction> melodyTasks = new ArrayList<RecursiveAction>();
+
+			// The index of the next chord of the harmony, which is assigned to
+			// the tokens in order.
+			int harmonyIndex = 0;
+
+			// The number of voices which need melodic patterns of each
+			// combination of phrase length and number of iterations, and the
+			// largest of these numbers.
+			int[][] shapeVoices = new int[MAX_PHRASE_LENGTH - MIN_PHRASE_LENGTH
+					+ 1][MAX_MELODY_ITERATIONS - MIN_MELODY_ITERATIONS + 1];
+			int maxShapeVoices = 0;
+
 			// For each token.
-			for (Token token : tokens) {
+			for (final Token token : tokens) {
 				// Initialise the chord for the token.
 				token.harmonicPattern = new Chord[token.length
 						* CROCHETS_IN_A_BAR];
 				// Initialise the melodies of the voices in the token.
-				token.melodicPatterns = new String[NUMBER_OF_VOICES];
-
-				// The L-system which generates the melodies for the voices.
-				ContextSensitiveNonDeterministicLSystem melodyGenerator = new MelodyGenerator(
-						token.length);
+				token.melodicPatterns = new MelodicPattern[voices.size()];
 
 				// For each crochet in the token.
 				for (int crochetIndex = 0; crochetIndex < token.length
 						* CROCHETS_IN_A_BAR; crochetIndex++) {
 					// Add the harmony for that crochet.
-					token.harmonicPattern[crochetIndex] = harmony.poll();
+					token.harmonicPattern[crochetIndex] = harmony[harmonyIndex++];
 				}
 
 				// For each voice.
-				for (int voiceIndex = 0; voiceIndex < NUMBER_OF_VOICES; voiceIndex++) {
+				for (int voiceIndex = 0; voiceIndex < voices.size(); voiceIndex++) {
 					// Randomly select the number of iterations for the melody
 					// system.
-					int numberOfIterations = randomGenerator
+					final int numberOfIterations = randomGenerator
 							.nextInt(MAX_MELODY_ITERATIONS
 									- MIN_MELODY_ITERATIONS + 1)
 							+ MIN_MELODY_ITERATIONS;
+					final VoiceTrack voice = voices.get(voiceIndex);
+
+					// Count the voice towards the patterns of its phrase
+					// length and number of iterations.
+					maxShapeVoices = Math.max(maxShapeVoices,
+							++shapeVoices[token.length - MIN_PHRASE_LENGTH][numberOfIterations
+									- MIN_MELODY_ITERATIONS]);
+
+					// Choose the candidate pattern, derived for the length of
+					// the token and the given number of iterations, which best
+					// fits the harmony of the token, and store it as the
+					// melodic pattern for the current voice and token. It is
+					// then rendered each time the token appears.
+					melodyTasks.add(new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute() {
+							token.melodicPatterns[voice.index] = melodySearch
+									.search(token.length, numberOfIterations,
+											token.harmonicPattern, tonic,
+											scaleType, voice.octave);
+						}
+					});
+				}
+			}
+
+			// Make sure that the pool keeps enough patterns for every voice to
+			// take all its candidates from it. The patterns which are missing
+			// are derived in the background, while the voices are searched.
+			reserveMelodyPatterns(maxShapeVoices * MELODY_CANDIDATES);
+
+			// Choose the melodic patterns of all the voices in parallel.
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(melodyTasks);
+				}
+			});
+		}
+
+		/**
+		 * Renders every phrase of a single voice into its track, followed by
+		 * its note in the final chord of the piece.
+		 */
+		private class VoiceRendering extends RecursiveAction {
+			/**
+			 * The serial version UID of this class.
+			 */
+			private static final long serialVersionUID = 1L;
+
+			/**
+			 * The voice which is rendered.
+			 */
+			private final VoiceTrack voice;
+			/**
+			 * The chord of the last bar.
+			 */
+			private final Chord lastHarmonicInfo;
+			/**
+			 * The exception thrown while rendering the voice, if any.
+			 */
+			public InvalidMidiDataException exception;
 
-					// Iterate through the melody system for the given number of
-					// iterations and store the result as the melodic pattern
-					// for the current voice and token.
-					for (int iterationIndex = 0; iterationIndex < numberOfIterations; iterationIndex++) {
-						token.melodicPatterns[voiceIndex] = melodyGenerator
-								.next();
+			/**
+			 * 
+			 * @param voice
+			 *            the voice which is rendered.
+			 * @param lastHarmonicInfo
+			 *            the chord of the last bar.
+			 */
+			public VoiceRendering(VoiceTrack voice, Chord lastHarmonicInfo) {
+				this.voice = voice;
+				this.lastHarmonicInfo = lastHarmonicInfo;
+			}
+
+			@Override
+			protected void compute() {
+				try {
+					// The index where the next phrase will be inserted.
+					int insertIndex = 0;
+
+					// For each phrase in the piece.
+					for (int tokenIndex : tokenOrder) {
+						// Get the token which generates that phrase.
+						Token currentToken = tokens[tokenIndex];
+
+						// Add the phrase melody for the voice.
+						currentToken.updateTrack(voice, insertIndex);
+
+						// Increment the insert index by the length of the
+						// current phrase.
+						insertIndex += currentToken.length * BAR_LENGTH;
 					}
 
-					// Reset the melody generator.
-					melodyGenerator.reset();
+					// Play the tonic's chord for the last bar.
+					addNote(voice.midiTrack, voice.channel,
+							lastHarmonicInfo.getMidiNote(
+									voice.finalChordDegree, voice.octave),
+							insertIndex, BAR_LENGTH * 2);
+				} catch (InvalidMidiDataException e) {
+					exception = e;
 				}
 			}
 		}
@@ -529,46 +611,42 @@ public class StructuredPolyphonicLSystemNotator {
 			// this piece.
 			Sequence midiSequence = new Sequence(Sequence.PPQ, CROCHET_LENGTH);
 
-			// The index where the next phrase will be inserted.
-			int insertIndex = 0;
+			// Select the chord for the last bar. Its tonic should be based on
+			// the key's tonic.
+			Chord lastHarmonicInfo = Chord.valueOf(tonic, Enum.valueOf(
+					ChordType.class, scaleType.toString() + "_TRIAD"));
+
+			// The tasks which render the voices.
+			final ArrayList<VoiceRendering> renderings = new ArrayList<VoiceRendering>();
 
-			// Initialise the tracks for the voices.
+			// For each voice.
 			for (VoiceTrack voice : voices) {
+				// Initialise the track for the voice.
 				voice.midiTrack = midiSequence.createTrack();
-			}
 
-			// For each phrase in the piece.
-			for (int tokenIndex : tokenOrder) {
-				// Get the token which generates that phrase.
-				Token currentToken = tokens[tokenIndex];
+				// Randomly select the chord degree of the voice in the last
+				// bar.
+				voice.finalChordDegree = randomGenerator
+						.nextInt(lastHarmonicInfo.getChordPattern().length);
 
-				// Add the phrase melody for each voice.
-				for (VoiceTrack voice : voices) {
-					currentToken.updateTrack(voice, insertIndex);
-				}
-
-				// Increment the insert index by the length of the current
-				// phrase.
-				insertIndex += currentToken.length * BAR_LENGTH;
+				renderings.add(new VoiceRendering(voice, lastHarmonicInfo));
 			}
 
-			// Play the tonic's chord for the last bar.
+			// Render the voices in parallel. Each voice only writes into its
+			// own track.
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
 
-			// Select the chord for the last bar. Its tonic should be based on
-			// the key's tonic.
-			Chord lastHarmonicInfo = new Chord(tonic, Enum.valueOf(
-					ChordType.class, scaleType.toString() + "_TRIAD"));
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(renderings);
+				}
+			});
 
-			// For each voice.
-			for (VoiceTrack voice : voices) {
-				// Randomly select the chord degree of the current voice.
-				int chordDegree = randomGenerator.nextInt(lastHarmonicInfo
-						.getChordPattern().length);
-
-				// Add the note for the current voice.
-				addNote(voice.midiTrack,
-						lastHarmonicInfo.getMidiNote(chordDegree, voice.octave),
-						insertIndex, BAR_LENGTH * 2);
+			for (VoiceRendering rendering : renderings) {
+				if (rendering.exception != null) {
+					throw rendering.exception;
+				}
 			}
 
 			// Return the MIDI sequence.
@@ -577,6 +655,55 @@ public class StructuredPolyphonicLSystemNotator {
 
 	}
 
+	/**
+	 * Sets the source of the melodic patterns used by the pieces generated
+	 * from now on.
+	 * 
+	 * @param source
+	 *            the source of the melodic patterns. It must hold patterns for
+	 *            every phrase length from {@link #MIN_PHRASE_LENGTH} to
+	 *            {@link #MAX_PHRASE_LENGTH}, and every number of iterations from
+	 *            {@link #MIN_MELODY_ITERATIONS} to
+	 *            {@link #MAX_MELODY_ITERATIONS}.
+	 */
+	public static synchronized void setMelodyPatternSource(
+			MelodyPatternSource source) {
+		melodyPatterns = source;
+	}
+
+	/**
+	 * Returns the source of the melodic patterns, creating the default pool if
+	 * no source has been set.
+	 * 
+	 * @return the source of the melodic patterns.
+	 */
+	public static synchronized MelodyPatternSource getMelodyPatternSource() {
+		if (melodyPatterns == null) {
+			melodyPatterns = new MelodyPatternPool(MIN_PHRASE_LENGTH,
+					MAX_PHRASE_LENGTH, MIN_MELODY_ITERATIONS,
+					MAX_MELODY_ITERATIONS, MELODY_POOL_DEPTH);
+		}
+
+		return melodyPatterns;
+	}
+
+	/**
+	 * Makes sure that the default pool of melodic patterns keeps at least the
+	 * given number of patterns for each combination of phrase length and
+	 * number of iterations. A source which was set with
+	 * {@link #setMelodyPatternSource(MelodyPatternSource)} is left as it is,
+	 * unless it is also a {@link MelodyPatternPool}.
+	 * 
+	 * @param depth
+	 *            the number of patterns which should be kept for each
+	 *            combination.
+	 */
+	private static synchronized void reserveMelodyPatterns(int depth) {
+		if (melodyPatterns instanceof MelodyPatternPool) {
+			((MelodyPatternPool) melodyPatterns).ensureDepth(depth);
+		}
+	}
+
 	/**
 	 * Generate and return a MIDI sequence based on the given parameters.
 	 * 
@@ -594,10 +721,47 @@ public class StructuredPolyphonicLSystemNotator {
 	 */
 	public static Sequence getSequence(Note tonic, Scale scaleType,
 			String structure) throws InvalidMidiDataException {
+		return getSequence(tonic, scaleType, structure,
+				DEFAULT_NUMBER_OF_VOICES);
+	}
+
+	/**
+	 * Generate and return a MIDI sequence with the given number of voices,
+	 * based on the given parameters.
+	 * 
+	 * Each voice is written into its own track. The voices are spread evenly
+	 * over the octaves from {@link #MIN_OCTAVE} to {@link #MAX_OCTAVE}, and
+	 * are assigned the MIDI channels in turn, except for the percussion
+	 * channel. The melodies of the voices are chosen, and then rendered, in
+	 * parallel.
+	 * 
+	 * @param tonic
+	 *            the tonic for this piece.
+	 * @param scaleType
+	 *            the scale for this piece.
+	 * @param structure
+	 *            the structure of this piece, in the format of a string of
+	 *            repeating characters ("aba" means
+	 *            "first a, then b, then a again").
+	 * @param numberOfVoices
+	 *            the number of voices in this piece.
+	 * 
+	 * @return the generated MIDI sequence.
+	 * @throws InvalidMidiDataException
+	 * @throws IllegalArgumentException
+	 *             if the number of voices is not positive.
+	 */
+	public static Sequence getSequence(Note tonic, Scale scaleType,
+			String structure, int numberOfVoices)
+			throws InvalidMidiDataException {
+		if (numberOfVoices < 1) {
+			throw new IllegalArgumentException(
+					"A piece needs at least one voice.");
+		}
 
 		// Analyse the tokens in the structure.
 		TokenAnalysis tokenAnalysis = new TokenAnalysis(tonic, scaleType,
-				structure);
+				structure, numberOfVoices);
 
 		// Generate and return the MIDI sequence.
 		return tokenAnalysis.generateSequence();
@@ -0,0 +1,209 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An alphabet which interns multi-character tokens as single symbols, so that
+ * an L-system can treat each token as one symbol.
+ * 
+ * Each token is given the next free symbol when it is interned, starting from
+ * 0. A symbol is a char, which is an unsigned 16-bit integer, so an alphabet
+ * can hold up to 65536 tokens, and the strings built from it can be rewritten,
+ * stored and matched by the L-system without any changes. Strings of symbols
+ * are not meant to be read directly, and should be decoded back into tokens
+ * with {@link #decode(CharSequence)}.
+ * 
+ * An alphabet is not synchronised while tokens are being interned. Once it has
+ * been frozen, no more tokens can be added, so its symbols never change, and
+ * it can be read by any number of threads, as long as it was published safely
+ * after being frozen.
+ */
+public class SymbolAlphabet {
+	/**
+	 * The largest number of tokens an alphabet can hold.
+	 */
+	public static final int MAX_SIZE = Character.MAX_VALUE + 1;
+
+	/**
+	 * The symbols of the tokens which have been interned, indexed by the
+	 * tokens.
+	 */
+	private HashMap<String, Character> symbols = new HashMap<String, Character>();
+	/**
+	 * The tokens which have been interned, indexed by their symbols.
+	 */
+	private ArrayList<String> tokens = new ArrayList<String>();
+	/**
+	 * True if no more tokens can be interned.
+	 * 
+	 * @see #freeze()
+	 */
+	private boolean frozen;
+
+	/**
+	 * Prevents any more tokens from being interned. The tokens which have
+	 * already been interned keep their symbols.
+	 * 
+	 * @return this alphabet.
+	 */
+	public SymbolAlphabet freeze() {
+		frozen = true;
+
+		return this;
+	}
+
+	/**
+	 * Returns true if no more tokens can be interned.
+	 * 
+	 * @return true if no more tokens can be interned.
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Returns the symbol of the given token, interning the token if it does
+	 * not have one yet.
+	 * 
+	 * @param token
+	 *            the token whose symbol will be returned.
+	 * @return the symbol of the given token.
+	 * @throws UnsupportedOperationException
+	 *             if the token does not have a symbol, and the alphabet has
+	 *             been frozen.
+	 */
+	public char intern(String token) {
+		Character symbol = symbols.get(token);
+
+		// Give the token the next free symbol, if it does not have one yet.
+		if (symbol == null) {
+			if (frozen) {
+				throw new UnsupportedOperationException(
+						"The alphabet is frozen: " + token);
+			}
+
+			if (tokens.size() == MAX_SIZE) {
+				throw new IllegalStateException("The alphabet is full.");
+			}
+
+			symbol = (char) tokens.size();
+			symbols.put(token, symbol);
+			tokens.add(token);
+		}
+
+		return symbol;
+	}
+
+	/**
+	 * Returns the symbol of the given token.
+	 * 
+	 * @param token
+	 *            the token whose symbol will be returned.
+	 * @return the symbol of the given token.
+	 * @throws IllegalArgumentException
+	 *             if the token has not been interned.
+	 */
+	public char getSymbol(String token) {
+		Character symbol = symbols.get(token);
+
+		if (symbol == null) {
+			throw new IllegalArgumentException("Unknown token: " + token);
+		}
+
+		return symbol;
+	}
+
+	/**
+	 * Returns the token of the given symbol.
+	 * 
+	 * @param symbol
+	 *            the symbol whose token will be returned.
+	 * @return the token of the given symbol.
+	 */
+	public String getToken(char symbol) {
+		if (symbol >= tokens.size()) {
+			throw new IllegalArgumentException("Unknown symbol: "
+					+ (int) symbol);
+		}
+
+		return tokens.get(symbol);
+	}
+
+	/**
+	 * Returns the number of tokens in this alphabet.
+	 * 
+	 * @return the number of tokens in this alphabet.
+	 */
+	public int size() {
+		return tokens.size();
+	}
+
+	/**
+	 * Encodes the given tokens as a string of symbols, interning any tokens
+	 * which do not have a symbol yet.
+	 * 
+	 * @param tokensToEncode
+	 *            the tokens which will be encoded.
+	 * @return the string which holds the symbols of the tokens.
+	 * @throws UnsupportedOperationException
+	 *             if one of the tokens does not have a symbol, and the
+	 *             alphabet has been frozen.
+	 */
+	public String encode(List<String> tokensToEncode) {
+		char[] encoded = new char[tokensToEncode.size()];
+
+		for (int tokenIndex = 0; tokenIndex < encoded.length; tokenIndex++) {
+			encoded[tokenIndex] = intern(tokensToEncode.get(tokenIndex));
+		}
+
+		return new String(encoded);
+	}
+
+	/**
+	 * Decodes the given string of symbols, by concatenating their tokens.
+	 * 
+	 * @param symbolsToDecode
+	 *            the symbols which will be decoded.
+	 * @return the concatenation of the tokens of the symbols.
+	 */
+	public String decode(CharSequence symbolsToDecode) {
+		StringBuilder decoded = new StringBuilder();
+
+		for (int charIndex = 0; charIndex < symbolsToDecode.length(); charIndex++) {
+			decoded.append(getToken(symbolsToDecode.charAt(charIndex)));
+		}
+
+		return decoded.toString();
+	}
+}
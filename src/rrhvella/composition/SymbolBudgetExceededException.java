@@ -0,0 +1,91 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+/**
+ * Thrown when a string generated by an L-system would be longer than the
+ * number of symbols it is allowed to hold.
+ * 
+ * The exception is thrown before the memory for the longer string is
+ * allocated, so the process which generates the string can recover from it.
+ * 
+ * @see Derivation#setSymbolBudget(int, SymbolBudgetPolicy)
+ */
+public class SymbolBudgetExceededException extends RuntimeException {
+	/**
+	 * The serial version UID of this class.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The maximum number of symbols which the string is allowed to hold.
+	 */
+	private final long budget;
+	/**
+	 * The number of symbols which the string would have needed.
+	 */
+	private final long requiredLength;
+
+	/**
+	 * 
+	 * @param budget
+	 *            the maximum number of symbols which the string is allowed to
+	 *            hold.
+	 * @param requiredLength
+	 *            the number of symbols which the string would have needed.
+	 */
+	public SymbolBudgetExceededException(long budget, long requiredLength) {
+		super("The string would need " + requiredLength
+				+ " symbols, but it can only hold " + budget + ".");
+		this.budget = budget;
+		this.requiredLength = requiredLength;
+	}
+
+	/**
+	 * Returns the maximum number of symbols which the string is allowed to
+	 * hold.
+	 * 
+	 * @return the maximum number of symbols which the string is allowed to
+	 *         hold.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of symbols which the string would have needed. This
+	 * is a lower bound, since the string was not generated in full.
+	 * 
+	 * @return the number of symbols which the string would have needed.
+	 */
+	public long getRequiredLength() {
+		return requiredLength;
+	}
+}
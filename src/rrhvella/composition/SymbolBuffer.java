@@ -0,0 +1,278 @@
+/*
+Copyright (c) 2013, robert.r.h.vella@gmail.com
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies, 
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package rrhvella.composition;
+
+/**
+ * A reusable, growable buffer of symbols, which holds a string generated by an
+ * L-system.
+ * 
+ * Unlike a StringBuffer, a symbol buffer is not synchronised, and it gives
+ * direct access to the array which backs it. This allows an L-system to match
+ * contexts and copy successors in bulk, and to keep reusing the same arrays
+ * from one generation to the next, instead of creating new strings.
+ */
+public class SymbolBuffer implements CharSequence {
+	/**
+	 * The initial capacity of a buffer, if none is specified.
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+	/**
+	 * The largest number of symbols a buffer can hold. Some virtual machines
+	 * reserve a few words in the header of an array, so arrays slightly
+	 * shorter than the largest integer may already fail to be allocated.
+	 */
+	public static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	/**
+	 * The array which holds the symbols. Only the first length symbols are
+	 * part of the buffer.
+	 */
+	private char[] symbols;
+	/**
+	 * The number of symbols in the buffer.
+	 */
+	private int length;
+	/**
+	 * The largest number of symbols which this buffer is allowed to hold.
+	 */
+	private int limit = MAX_CAPACITY;
+
+	/**
+	 * Creates an empty buffer.
+	 */
+	public SymbolBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty buffer with the given capacity.
+	 * 
+	 * @param capacity
+	 *            the number of symbols the buffer can hold before it has to
+	 *            grow.
+	 */
+	public SymbolBuffer(int capacity) {
+		symbols = new char[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Creates a buffer which holds the symbols of the given string.
+	 * 
+	 * @param source
+	 *            the string whose symbols will be stored in the buffer.
+	 */
+	public SymbolBuffer(CharSequence source) {
+		this(source.length());
+		append(source);
+	}
+
+	/**
+	 * Removes all the symbols from the buffer. The capacity of the buffer is
+	 * kept, so that it can be filled again without allocating memory.
+	 */
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Appends a single symbol to the buffer.
+	 * 
+	 * @param symbol
+	 *            the symbol which will be appended.
+	 */
+	public void append(char symbol) {
+		// The array may already be larger than the limit, if the limit was
+		// lowered after the buffer grew, so both have to be checked.
+		if (length == symbols.length || length >= limit) {
+			ensureCapacity(length + 1);
+		}
+
+		symbols[length++] = symbol;
+	}
+
+	/**
+	 * Appends a sequence of symbols to the buffer.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols.
+	 * @param offset
+	 *            the index of the first symbol which will be appended.
+	 * @param count
+	 *            the number of symbols which will be appended.
+	 */
+	public void append(char[] source, int offset, int count) {
+		ensureCapacity(length + count);
+		System.arraycopy(source, offset, symbols, length, count);
+		length += count;
+	}
+
+	/**
+	 * Appends all the symbols in the given array to the buffer.
+	 * 
+	 * @param source
+	 *            the array which holds the symbols.
+	 */
+	public void append(char[] source) {
+		append(source, 0, source.length);
+	}
+
+	/**
+	 * Appends the symbols of the given string to the buffer.
+	 * 
+	 * @param source
+	 *            the string whose symbols will be appended.
+	 */
+	public void append(CharSequence source) {
+		int count = source.length();
+		ensureCapacity(length + count);
+
+		for (int charIndex = 0; charIndex < count; charIndex++) {
+			symbols[length++] = source.charAt(charIndex);
+		}
+	}
+
+	/**
+	 * Makes sure that the buffer can hold the given number of symbols without
+	 * growing.
+	 * 
+	 * @param capacity
+	 *            the number of symbols the buffer has to be able to hold.
+	 * @throws SymbolBudgetExceededException
+	 *             if the capacity is greater than the limit of this buffer. In
+	 *             that case, the buffer is left unchanged, so a failed append
+	 *             does not add any symbols.
+	 */
+	public void ensureCapacity(int capacity) {
+		// A negative capacity means that the length required overflowed, in
+		// which case its unsigned value is the true length.
+		//
+		// The limit is checked before the size of the array, since a buffer
+		// which is reused keeps an array which may be larger than its current
+		// limit.
+		if (capacity < 0 || capacity > limit) {
+			throw new SymbolBudgetExceededException(limit,
+					capacity & 0xFFFFFFFFL);
+		}
+
+		if (capacity <= symbols.length) {
+			return;
+		}
+
+		// At least double the size of the array, so that appending a symbol
+		// takes constant time on average, but never grow past the limit.
+		long newCapacity = Math.max(capacity, (long) symbols.length * 2);
+		char[] newSymbols = new char[(int) Math.min(newCapacity, limit)];
+		System.arraycopy(symbols, 0, newSymbols, 0, length);
+		symbols = newSymbols;
+	}
+
+	/**
+	 * Sets the number of symbols in the buffer. If the buffer grows, the
+	 * symbols which are added are undefined, and should be written directly
+	 * into the array which backs the buffer.
+	 * 
+	 * @param length
+	 *            the new number of symbols in the buffer.
+	 */
+	public void setLength(int length) {
+		ensureCapacity(length);
+		this.length = length;
+	}
+
+	/**
+	 * Returns the largest number of symbols which this buffer is allowed to
+	 * hold.
+	 * 
+	 * @return the largest number of symbols which this buffer is allowed to
+	 *         hold.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the largest number of symbols which this buffer is allowed to hold.
+	 * Any attempt to grow the buffer past the limit throws an exception,
+	 * before more memory is allocated. The symbols already in the buffer are
+	 * kept, even if there are more of them than the limit.
+	 * 
+	 * @param limit
+	 *            the largest number of symbols which this buffer is allowed to
+	 *            hold.
+	 */
+	public void setLimit(int limit) {
+		if (limit < 0 || limit > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Invalid limit: " + limit);
+		}
+
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns the array which backs this buffer. Only the first
+	 * {@link #length()} symbols of the array are part of the buffer, and the
+	 * array is replaced whenever the buffer grows.
+	 * 
+	 * @return the array which backs this buffer.
+	 */
+	public char[] getSymbols() {
+		return symbols;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Length: " + length);
+		}
+
+		return symbols[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Start: " + start + ", End: "
+					+ end + ", Length: " + length);
+		}
+
+		return new String(symbols, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(symbols, 0, length);
+	}
+}